@@ -0,0 +1,37 @@
+package cp1.base;
+
+/**
+ * An operation that commutes with every other
+ * commutative operation on the same resource,
+ * like an increment of a counter. Commutative
+ * operations of different transactions may
+ * operate on a resource at the same time, their
+ * execute and undo are then called one at a time,
+ * unless the operation is atomic.
+ */
+public abstract class CommutativeResourceOperation extends ResourceOperation {
+
+	/**
+	 * Returns by how much the operation changes
+	 * the value of an {@link EscrowResource}.
+	 * Operations on other resources need not
+	 * override it.
+	 */
+	public long getDelta() {
+		return 0;
+	}
+
+	/**
+	 * Returns true if execute and undo may be called
+	 * at the same time as those of other commutative
+	 * operations on the same resource, because they
+	 * change it atomically, like an increment of
+	 * an {@link java.util.concurrent.atomic.AtomicLong}.
+	 * Bounds of an {@link EscrowResource} are checked
+	 * either way.
+	 */
+	public boolean isAtomic() {
+		return false;
+	}
+
+}
@@ -0,0 +1,20 @@
+package cp1.base;
+
+/**
+ * A counter whose value has to stay within bounds.
+ * A commutative operation on it is executed only
+ * if the value stays within bounds whichever of
+ * the transactions that changed it commit.
+ */
+public interface EscrowResource {
+
+	/**
+	 * Returns the current value of the counter.
+	 */
+	public long getValue();
+
+	public long getLowerBound();
+
+	public long getUpperBound();
+
+}
@@ -0,0 +1,14 @@
+package cp1.base;
+
+/**
+ * An identifier of a resource that also gives its position
+ * among the resources of a manager. If the identifiers of all
+ * resources of a manager are such, with distinct indexes from
+ * 0 to about the number of resources, the manager looks them
+ * up in arrays instead of hashing the identifiers.
+ */
+public interface IndexedResourceId extends ResourceId {
+
+	public int getIndex();
+
+}
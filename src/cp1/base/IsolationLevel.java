@@ -0,0 +1,28 @@
+package cp1.base;
+
+/**
+ * Guarantees that a transaction gets about
+ * operations of other transactions.
+ */
+public enum IsolationLevel {
+
+	/**
+	 * The transaction behaves as if no other
+	 * transaction ran at the same time.
+	 */
+	SERIALIZABLE,
+
+	/**
+	 * The transaction reads versioned resources as they
+	 * were committed when it started, and is aborted if it
+	 * changes a resource committed by another one since then.
+	 */
+	SNAPSHOT,
+
+	/**
+	 * The transaction reads only committed states of
+	 * resources, but they may change between its reads.
+	 */
+	READ_COMMITTED;
+
+}
@@ -0,0 +1,15 @@
+package cp1.base;
+
+/**
+ * An operation that only reads a resource.
+ * Read-only operations of different transactions
+ * may operate on a resource at the same time.
+ */
+public abstract class ReadOnlyResourceOperation extends ResourceOperation {
+
+	@Override
+	public final void undo(Resource r) {
+		// Nothing to undo, the resource has not been changed.
+	}
+
+}
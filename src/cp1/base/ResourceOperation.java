@@ -13,6 +13,15 @@ public abstract class ResourceOperation {
 	
 	public abstract void undo(Resource r);
 
+	/**
+	 * Returns the codec that writes the operation outside
+	 * the heap, or null if it has to stay in the heap, which
+	 * is the default.
+	 */
+	public ResourceOperationCodec getCodec() {
+		return null;
+	}
+
 	@Override
 	protected final Object clone() throws CloneNotSupportedException {
 		throw new CloneNotSupportedException();
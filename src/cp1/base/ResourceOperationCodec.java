@@ -0,0 +1,34 @@
+package cp1.base;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes operations to bytes and reads them back, so that
+ * the history of a bulk transaction can be kept outside
+ * the heap, see {@link TransactionManager#startBulkTransaction(int)}.
+ * An operation read back has to undo the same change as
+ * the one written. A codec may be used by many transactions
+ * at the same time.
+ */
+public interface ResourceOperationCodec {
+
+	/**
+	 * Returns the greatest number of bytes that encode
+	 * writes for a single operation.
+	 */
+	public int maxEncodedSize();
+
+	/**
+	 * Writes the operation at the position of the buffer,
+	 * which has at least maxEncodedSize() bytes remaining,
+	 * and moves the position past it.
+	 */
+	public void encode(ResourceOperation operation, ByteBuffer buffer);
+
+	/**
+	 * Reads an operation written by encode, from the position
+	 * of the buffer to its limit.
+	 */
+	public ResourceOperation decode(ByteBuffer buffer);
+
+}
@@ -0,0 +1,30 @@
+package cp1.base;
+
+/**
+ * An operation together with the resource
+ * it is going to operate on.
+ */
+public final class ResourceOperationPair {
+
+	private final ResourceId rid;
+	private final ResourceOperation operation;
+
+	public ResourceOperationPair(ResourceId rid, ResourceOperation operation) {
+		this.rid = rid;
+		this.operation = operation;
+	}
+
+	public ResourceId getResourceId() {
+		return this.rid;
+	}
+
+	public ResourceOperation getOperation() {
+		return this.operation;
+	}
+
+	@Override
+	public String toString() {
+		return this.operation + " on " + this.rid;
+	}
+
+}
@@ -0,0 +1,77 @@
+package cp1.base;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A transaction that is not bound to a thread. Its
+ * methods may be called from any thread, one call at
+ * a time, and work like the corresponding methods of
+ * {@link TransactionManager} for the current transaction.
+ * Calls that follow each other have to be ordered by
+ * the caller, e.g. by handing the handle over through
+ * an executor. Once committed or rolled back, the
+ * handle is no longer active.
+ */
+public interface TransactionHandle {
+
+	public void operateOnResource(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+
+	/**
+	 * Like operateOnResource, but the calling thread never
+	 * waits for the resource. The returned future completes
+	 * once the operation has been executed, or exceptionally
+	 * with the exception operateOnResource would throw, e.g.
+	 * ActiveTransactionAborted if the transaction is chosen
+	 * as a deadlock victim while waiting. The next call on
+	 * the handle may be made once the future is completed.
+	 * By default the operation is executed at once.
+	 */
+	public default CompletableFuture<Void> operateAsync(
+			ResourceId rid,
+			ResourceOperation operation
+	) {
+		try {
+			operateOnResource(rid, operation);
+			return CompletableFuture.completedFuture(null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return CompletableFuture.failedFuture(e);
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	public void commit(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
+	/**
+	 * Like commit, but the result is reported by the
+	 * returned future. Commit does not wait for other
+	 * transactions, so by default it is done at once.
+	 */
+	public default CompletableFuture<Void> commitAsync() {
+		try {
+			commit();
+			return CompletableFuture.completedFuture(null);
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	public void rollback();
+
+	public boolean isActive();
+
+	public boolean isAborted();
+
+}
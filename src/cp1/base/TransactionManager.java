@@ -7,6 +7,9 @@
  */
 package cp1.base;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -20,6 +23,83 @@ public interface TransactionManager {
 	public void startTransaction(
 	) throws
 		AnotherTransactionActiveException;
+
+	/**
+	 * Like startTransaction, but the transaction gets
+	 * the given guarantees about other transactions.
+	 * startTransaction starts a serializable one.
+	 */
+	public void startTransaction(
+			IsolationLevel isolation
+	) throws
+		AnotherTransactionActiveException;
+
+	/**
+	 * Like startTransaction, but the transaction declares
+	 * all resources it is going to operate on, and it
+	 * acquires them up front, in the order of their
+	 * identifiers. Such transactions never deadlock with
+	 * each other. An operation on a resource that has not
+	 * been declared fails with UnknownResourceIdException.
+	 * If acquiring fails, the transaction is active and
+	 * has to be rolled back.
+	 */
+	public void startTransaction(
+			Collection<ResourceId> resources
+	) throws
+		AnotherTransactionActiveException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		InterruptedException;
+
+	/**
+	 * Like startTransaction, but operations of the transaction
+	 * are only recorded when issued. They are executed at commit,
+	 * after all resources they need have been acquired in the order
+	 * of their identifiers, and the resources are released right
+	 * afterwards. Such transactions never deadlock with each other.
+	 * If an operation fails at commit, the transaction is aborted.
+	 */
+	public void startDeferredTransaction(
+	) throws
+		AnotherTransactionActiveException;
+
+	/**
+	 * Starts a transaction that may execute a very large
+	 * number of operations. Whenever spillThreshold of them
+	 * are kept for a rollback, they are moved to a temporary
+	 * memory-mapped file, read back in reverse if the transaction
+	 * is rolled back and discarded once it ends. Only operations
+	 * that have a codec, see {@link ResourceOperation#getCodec()},
+	 * are moved: once an operation without one is kept, the rest
+	 * of the history stays in the heap.
+	 */
+	public void startBulkTransaction(
+			int spillThreshold
+	) throws
+		AnotherTransactionActiveException;
+
+	/**
+	 * Starts a serializable transaction that is not bound
+	 * to the current thread, see {@link TransactionHandle}.
+	 * The current thread may have an active transaction
+	 * of its own and may start any number of these.
+	 */
+	public TransactionHandle begin();
+
+	/**
+	 * Starts a read-only transaction that reads
+	 * a snapshot of resources as of its start:
+	 * it never waits for other transactions and
+	 * is never aborted. Its operations must be
+	 * read-only and its resources must implement
+	 * {@link VersionedResource}. Otherwise an operation
+	 * fails with {@link ResourceOperationException}
+	 * or {@link UnknownResourceIdException}, respectively.
+	 */
+	public void startReadOnlyTransaction(
+	) throws
+		AnotherTransactionActiveException;
 	
 	public void operateOnResourceInCurrentTransaction(
 			ResourceId rid,
@@ -31,6 +111,73 @@ public interface TransactionManager {
 		ResourceOperationException,
 		InterruptedException;
 	
+	/**
+	 * Like operateOnResourceInCurrentTransaction, but returns
+	 * false at once, without executing the operation,
+	 * if access to the resource cannot be granted immediately.
+	 */
+	public boolean tryOperateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+
+	/**
+	 * Like operateOnResourceInCurrentTransaction, but returns
+	 * false, without executing the operation, if access to
+	 * the resource has not been granted within the timeout.
+	 */
+	public boolean tryOperateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation,
+			Duration timeout
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+
+	/**
+	 * Acquires access to all resources of a batch in the order
+	 * of their identifiers and then executes the operations in
+	 * the order in which they are given. Transactions that acquire
+	 * resources only in this order never deadlock with each other.
+	 * If an operation fails, the operations that precede it
+	 * in the batch remain executed.
+	 */
+	public void operateOnResourcesInCurrentTransaction(
+			List<ResourceOperationPair> operations
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+
+	/**
+	 * Runs the operations on a single resource as a whole
+	 * transaction of its own, which is committed if this
+	 * method returns normally. If an operation fails, the
+	 * transaction is rolled back and its exception is thrown.
+	 * The current thread must not have an active transaction.
+	 * Transactions on a resource used by many threads may be
+	 * applied in batches, by one of the waiting threads.
+	 */
+	public void operateOnResourceInNewTransaction(
+			ResourceId rid,
+			List<ResourceOperation> operations
+	) throws
+		AnotherTransactionActiveException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+
 	public void commitCurrentTransaction(
 	) throws
 		NoActiveTransactionException,
@@ -0,0 +1,16 @@
+package cp1.base;
+
+/**
+ * A resource whose committed states may be kept
+ * as separate versions, so that read-only transactions
+ * can read a snapshot without waiting for writers.
+ */
+public interface VersionedResource {
+
+	/**
+	 * Returns a copy of the current state of the resource,
+	 * with the same id. The copy is only read afterwards.
+	 */
+	public Resource copy();
+
+}
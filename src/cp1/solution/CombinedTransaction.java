@@ -0,0 +1,59 @@
+package cp1.solution;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// A transaction on a single hot resource, queued to be applied by a combiner.
+class CombinedTransaction {
+    private final List<ResourceOperation> operations;
+    private final Thread thread; // Thread parked until the transaction is applied.
+    private boolean aborted;
+    private Throwable failure; // Thrown by the operation that failed, the transaction is rolled back then.
+    private volatile boolean done; // Written last, publishes the outcome.
+
+    CombinedTransaction(List<ResourceOperation> operations, Thread thread) {
+        this.operations = operations;
+        this.thread = thread;
+    }
+
+    List<ResourceOperation> getOperations() {
+        return operations;
+    }
+
+    Thread getThread() {
+        return thread;
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    void abort() {
+        aborted = true;
+    }
+
+    void fail(Throwable failure) {
+        this.failure = failure;
+    }
+
+    void complete() {
+        done = true;
+        LockSupport.unpark(thread);
+    }
+
+    // Called by the transaction's own thread once it is done, throws unless it has been committed.
+    void checkCommitted() throws ActiveTransactionAborted, ResourceOperationException {
+        if (aborted)
+            throw new ActiveTransactionAborted();
+        if (failure instanceof ResourceOperationException)
+            throw (ResourceOperationException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null)
+            throw (RuntimeException) failure;
+    }
+}
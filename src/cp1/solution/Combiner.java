@@ -0,0 +1,65 @@
+package cp1.solution;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.ResourceId;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Flat combining for a hot resource: transactions on it alone are queued, and whichever
+// of their threads becomes the combiner applies all queued ones under a single acquisition
+// of the resource, instead of every one of them waiting for its turn.
+class Combiner {
+    private final MyManager manager;
+    private final ResourceId resourceId;
+    private final Queue<CombinedTransaction> queue;
+    private final AtomicBoolean combining; // Is some thread applying queued transactions.
+
+    Combiner(MyManager manager, ResourceId resourceId) {
+        this.manager = manager;
+        this.resourceId = resourceId;
+        queue = new ConcurrentLinkedQueue<>();
+        combining = new AtomicBoolean(false);
+    }
+
+    // Transactions keep being combined while there is a combiner, even if resource cools down.
+    boolean isCombining() {
+        return combining.get();
+    }
+
+    // Returns once the transaction has been applied, by this or another thread.
+    void submit(CombinedTransaction transaction) throws ActiveTransactionAborted, InterruptedException {
+        queue.add(transaction);
+        boolean interrupted = false;
+        while (!transaction.isDone()) {
+            if (combining.compareAndSet(false, true)) {
+                try {
+                    if (!transaction.isDone())
+                        manager.applyCombined(resourceId, queue);
+                } catch (ActiveTransactionAborted | InterruptedException e) {
+                    // Nothing has been applied, the others wait for the next combiner.
+                    queue.remove(transaction);
+                    throw e;
+                } finally {
+                    combining.set(false);
+                    // A transaction queued after the last poll would not be applied otherwise.
+                    CombinedTransaction next = queue.peek();
+                    if (next != null)
+                        LockSupport.unpark(next.getThread());
+                }
+            } else {
+                LockSupport.park(this);
+                // A transaction already taken by the combiner is waited for till the end.
+                if (Thread.interrupted()) {
+                    if (queue.remove(transaction))
+                        throw new InterruptedException();
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
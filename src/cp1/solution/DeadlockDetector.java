@@ -0,0 +1,40 @@
+package cp1.solution;
+
+import java.lang.ref.WeakReference;
+
+// Periodically looks for deadlocks in a manager that does not check for cycles
+// when a transaction starts waiting. Holds the manager weakly, so the thread
+// ends once the manager is no longer used.
+class DeadlockDetector implements Runnable {
+    private final WeakReference<MyManager> manager;
+    private final long intervalMillis;
+    private final VictimSelection selection;
+
+    DeadlockDetector(MyManager manager, long intervalMillis, VictimSelection selection) {
+        this.manager = new WeakReference<>(manager);
+        this.intervalMillis = intervalMillis;
+        this.selection = selection;
+    }
+
+    static void start(MyManager manager, long intervalMillis, VictimSelection selection) {
+        Thread thread = new Thread(new DeadlockDetector(manager, intervalMillis, selection), "deadlock-detector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            MyManager m = manager.get();
+            if (m == null)
+                return;
+            m.detectDeadlocks(selection);
+            m = null;
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package cp1.solution;
+
+import java.time.Duration;
+
+/**
+ * Decides what a transaction does when it has to wait for a resource,
+ * so that waiting transactions never stay in a deadlock.
+ */
+public interface DeadlockPolicy {
+
+    /**
+     * Called once, when the manager using the policy is created.
+     */
+    default void attach(MyManager manager) {
+    }
+
+    /**
+     * Called by a transaction that has just been queued for a resource.
+     * Returns false if the transaction must not wait, it is aborted then.
+     */
+    boolean beforeWait(MyManager manager, Transaction waiting);
+
+    /**
+     * Cycles are looked for by every transaction that starts waiting,
+     * the youngest transaction of a cycle is aborted.
+     */
+    static DeadlockPolicy detection() {
+        return detection(VictimSelection.YOUNGEST);
+    }
+
+    /**
+     * Cycles are looked for by every transaction that starts waiting,
+     * the transaction of a cycle chosen by selection is aborted.
+     */
+    static DeadlockPolicy detection(VictimSelection selection) {
+        return new DetectionPolicy(null, selection);
+    }
+
+    /**
+     * Cycles are looked for by a background thread every given interval.
+     */
+    static DeadlockPolicy detection(Duration interval) {
+        return detection(interval, VictimSelection.YOUNGEST);
+    }
+
+    /**
+     * Cycles are looked for by a background thread every given interval,
+     * the transaction of a cycle chosen by selection is aborted.
+     */
+    static DeadlockPolicy detection(Duration interval, VictimSelection selection) {
+        return new DetectionPolicy(interval, selection);
+    }
+
+    /**
+     * An older transaction aborts the younger ones it would wait for.
+     */
+    static DeadlockPolicy woundWait() {
+        return new WoundWaitPolicy();
+    }
+
+    /**
+     * A younger transaction aborts itself instead of waiting for an older one.
+     */
+    static DeadlockPolicy waitDie() {
+        return new WaitDiePolicy();
+    }
+
+    /**
+     * A transaction aborts itself instead of waiting at all.
+     */
+    static DeadlockPolicy noWait() {
+        return new NoWaitPolicy();
+    }
+}
@@ -0,0 +1,32 @@
+package cp1.solution;
+
+import java.time.Duration;
+
+// Lets transactions wait and aborts one transaction of every cycle in the
+// wait-for graph, chosen by a VictimSelection. Cycles are looked for either
+// by the transaction that starts waiting or by a background DeadlockDetector.
+class DetectionPolicy implements DeadlockPolicy {
+    private final Duration interval; // Null if cycles are looked for by waiting transactions.
+    private final VictimSelection selection;
+
+    DetectionPolicy(Duration interval, VictimSelection selection) {
+        this.interval = interval;
+        this.selection = selection;
+    }
+
+    @Override
+    public void attach(MyManager manager) {
+        if (interval != null)
+            DeadlockDetector.start(manager, Math.max(1, Timeouts.toMillis(interval)), selection);
+    }
+
+    @Override
+    public boolean beforeWait(MyManager manager, Transaction waiting) {
+        // Every cycle contains a transaction that acquires resources out of order,
+        // so an ordered transaction may skip the check if no such transaction waits:
+        // the one that starts waiting later will find the cycle.
+        if (interval == null && (!waiting.isOrdered() || manager.isUnorderedWaiting()))
+            manager.checkForCycle(waiting, selection);
+        return true;
+    }
+}
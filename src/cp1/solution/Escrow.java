@@ -0,0 +1,70 @@
+package cp1.solution;
+
+import cp1.base.EscrowResource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Escrow state of a bounded counter: the least and the greatest value it may end up with,
+// whichever of the active transactions that changed it commit. A change is let through only
+// if both stay within bounds. Guarded by the lock of the counter's LockSlot.
+class Escrow {
+    private final EscrowResource counter;
+    private long low;
+    private long high;
+    private final Map<Transaction, long[]> pending; // Sums of decreases and increases of active transactions.
+
+    Escrow(EscrowResource counter) {
+        this.counter = counter;
+        low = high = counter.getValue();
+        pending = new HashMap<>();
+    }
+
+    // Returns false if the counter might go out of bounds, nothing is reserved then. A transaction
+    // holding the counter exclusively may have changed it by any operation, and nobody else has
+    // changes pending, so the bounds are checked against its current value. So they are when no
+    // changes are pending at all: the escrow of a lazily created slot may have been built before
+    // another slot of the counter committed changes.
+    boolean reserve(Transaction transaction, long delta, boolean exclusive) {
+        if (exclusive || pending.isEmpty())
+            low = high = counter.getValue();
+        if (delta < 0 ? low + delta < counter.getLowerBound() : high + delta > counter.getUpperBound())
+            return false;
+        long[] sums = pending.computeIfAbsent(transaction, t -> new long[2]);
+        if (delta < 0) {
+            low += delta;
+            sums[0] += delta;
+        } else {
+            high += delta;
+            sums[1] += delta;
+        }
+        return true;
+    }
+
+    // Gives back the reservation of an operation that has not been done.
+    void cancel(Transaction transaction, long delta) {
+        long[] sums = pending.get(transaction);
+        if (delta < 0) {
+            low -= delta;
+            sums[0] -= delta;
+        } else {
+            high -= delta;
+            sums[1] -= delta;
+        }
+    }
+
+    // Called when the transaction releases the counter, after its changes are undone if it rolls back.
+    void end(Transaction transaction, boolean committed, boolean exclusive) {
+        long[] sums = pending.remove(transaction);
+        if (exclusive) {
+            // Nobody else has changes pending, and the counter might have been changed by any operation.
+            low = high = counter.getValue();
+        } else if (sums != null && committed) {
+            high += sums[0];
+            low += sums[1];
+        } else if (sums != null) {
+            low -= sums[0];
+            high -= sums[1];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cp1.solution;
+
+import cp1.base.CommutativeResourceOperation;
+import cp1.base.ReadOnlyResourceOperation;
+import cp1.base.ResourceOperation;
+
+public enum LockMode {
+    SHARED, INCREMENT, EXCLUSIVE;
+
+    public static LockMode of(ResourceOperation operation) {
+        if (operation instanceof ReadOnlyResourceOperation)
+            return SHARED;
+        if (operation instanceof CommutativeResourceOperation)
+            return INCREMENT;
+        return EXCLUSIVE;
+    }
+
+    // Can two different transactions hold a resource in these modes at the same time.
+    public boolean isCompatibleWith(LockMode other) {
+        return this == other && this != EXCLUSIVE;
+    }
+
+    // Does holding a resource in this mode allow operations that need the other mode.
+    public boolean covers(LockMode other) {
+        return this == EXCLUSIVE || this == other;
+    }
+
+    // The weakest mode that covers both modes.
+    public LockMode join(LockMode other) {
+        if (covers(other))
+            return this;
+        if (other.covers(this))
+            return other;
+        return EXCLUSIVE;
+    }
+}
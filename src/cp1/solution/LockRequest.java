@@ -0,0 +1,40 @@
+package cp1.solution;
+
+import java.util.concurrent.locks.LockSupport;
+
+// A request of a transaction waiting in a slot's queue.
+class LockRequest {
+    private final Transaction transaction;
+    private final LockMode mode;
+    private final Thread thread; // Thread parked until the request is granted.
+    private final Runnable continuation; // Run instead of unparking, null if the thread is parked.
+    private volatile boolean granted;
+
+    LockRequest(Transaction transaction, LockMode mode, Thread thread, Runnable continuation) {
+        this.transaction = transaction;
+        this.mode = mode;
+        this.thread = thread;
+        this.continuation = continuation;
+    }
+
+    Transaction getTransaction() {
+        return transaction;
+    }
+
+    LockMode getMode() {
+        return mode;
+    }
+
+    boolean isGranted() {
+        return granted;
+    }
+
+    // Called under the slot's lock, so the continuation must only hand the work over.
+    void grant() {
+        granted = true;
+        if (continuation != null)
+            continuation.run();
+        else
+            LockSupport.unpark(thread);
+    }
+}
@@ -0,0 +1,201 @@
+package cp1.solution;
+
+import cp1.base.ResourceId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lock state of a single resource. Every slot is guarded by its own lock,
+// so transactions operating on disjoint resources never contend. It is not
+// a monitor, so that virtual threads blocked on it do not pin their carriers.
+// All methods but lock, unlock and isHot must be called while holding the slot's lock.
+class LockSlot {
+    private static final int HOT_HEAT = 4; // Heat from which resource is hot.
+    private static final int MAX_HEAT = 8;
+    private final ResourceId resourceId;
+    private final List<Transaction> holders; // Transactions that have access to resource.
+    private LockMode mode; // Mode in which holders have access, null if resource is free.
+    private final ArrayDeque<LockRequest> queue; // Transactions waiting for resource, in order of arrival.
+    private final Escrow escrow; // Bounds of the counter changed in INCREMENT mode, null if resource is not bounded.
+    private volatile int heat; // Grows with every acquisition that has to wait, drops with every other.
+                               // Lost with a removed slot, a new one grows it again once contended.
+    private final ReentrantLock lock;
+    private boolean retired; // Removed from a lazy table, a new slot is created for the resource.
+
+    LockSlot(ResourceId resourceId, Escrow escrow) {
+        this.resourceId = resourceId;
+        this.escrow = escrow;
+        holders = new ArrayList<>(1);
+        queue = new ArrayDeque<>();
+        lock = new ReentrantLock();
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    ResourceId getResourceId() {
+        return resourceId;
+    }
+
+    boolean isHot() {
+        return heat >= HOT_HEAT;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    // A free slot keeps nothing that a new one would need, heat only routes later transactions.
+    boolean isFree() {
+        return holders.isEmpty() && queue.isEmpty();
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    boolean isHolder(Transaction transaction) {
+        return holders.contains(transaction);
+    }
+
+    // Returns true if the transaction has access to resource in given mode,
+    // it is never queued by this method.
+    boolean tryAcquire(Transaction transaction, LockMode requested) {
+        if (isHolder(transaction)) {
+            if (mode.covers(requested))
+                return true;
+            if (holders.size() == 1) {
+                mode = mode.join(requested);
+                return true;
+            }
+            return false;
+        }
+        if (queue.isEmpty() && (mode == null || mode.isCompatibleWith(requested))) {
+            holders.add(transaction);
+            mode = requested;
+            return true;
+        }
+        return false;
+    }
+
+    // Returns null if the transaction has access to resource in given mode,
+    // otherwise the returned request is granted once it gets access.
+    LockRequest acquire(Transaction transaction, LockMode requested) {
+        return acquire(transaction, requested, null);
+    }
+
+    // Like acquire, but the continuation is run once the request is granted, instead of unparking.
+    LockRequest acquire(Transaction transaction, LockMode requested, Runnable continuation) {
+        if (tryAcquire(transaction, requested)) {
+            if (heat > 0)
+                heat--;
+            return null;
+        }
+        if (heat < MAX_HEAT)
+            heat++;
+        // A waiter and the transactions it waits for may be referred to by others from now on.
+        transaction.markVisible();
+        for (int i = 0; i < holders.size(); i++) {
+            holders.get(i).markVisible();
+        }
+        if (isHolder(transaction)) {
+            // Upgrades go first, other transactions are waiting for this one anyway.
+            LockRequest request = new LockRequest(transaction, mode.join(requested), transaction.getThread(), continuation);
+            queue.addFirst(request);
+            return request;
+        }
+        LockRequest request = new LockRequest(transaction, requested, transaction.getThread(), continuation);
+        queue.addLast(request);
+        return request;
+    }
+
+    // Called by a waiter that gave up waiting. Returns true if the request
+    // has been granted in the meantime, the transaction has access then.
+    boolean cancel(LockRequest request) {
+        if (request.isGranted())
+            return true;
+        queue.remove(request);
+        // Transactions that were waiting behind might have got access now.
+        grantWaiting();
+        return false;
+    }
+
+    // Returns false if the change by delta could take the bounded counter out of its bounds.
+    boolean reserve(Transaction transaction, long delta) {
+        return escrow == null || escrow.reserve(transaction, delta, mode == LockMode.EXCLUSIVE);
+    }
+
+    void cancelReservation(Transaction transaction, long delta) {
+        if (escrow != null)
+            escrow.cancel(transaction, delta);
+    }
+
+    // Releases resource at the end of transaction, once its changes are committed or undone.
+    void end(Transaction transaction, boolean committed) {
+        if (escrow != null && isHolder(transaction))
+            escrow.end(transaction, committed, mode == LockMode.EXCLUSIVE);
+        release(transaction);
+    }
+
+    void release(Transaction transaction) {
+        if (!holders.remove(transaction))
+            return;
+        if (holders.isEmpty())
+            mode = null;
+        grantWaiting();
+    }
+
+    private void grantWaiting() {
+        while (!queue.isEmpty()) {
+            LockRequest request = queue.peekFirst();
+            Transaction transaction = request.getTransaction();
+            if (isHolder(transaction)) {
+                if (holders.size() > 1)
+                    return;
+                mode = request.getMode();
+            } else if (mode == null || mode.isCompatibleWith(request.getMode())) {
+                holders.add(transaction);
+                mode = request.getMode();
+            } else {
+                return;
+            }
+            queue.pollFirst();
+            request.grant();
+        }
+    }
+
+    // Transactions that the given waiting transaction waits for: holders of resource
+    // and transactions queued ahead of it. Empty if the transaction does not wait here.
+    List<Transaction> getWaitedFor(Transaction transaction) {
+        List<Transaction> result = new ArrayList<>();
+        boolean found = false;
+        Iterator<LockRequest> it = queue.iterator();
+        while (it.hasNext() && !found) {
+            LockRequest request = it.next();
+            if (request.getTransaction() == transaction)
+                found = true;
+            else
+                result.add(request.getTransaction());
+        }
+        if (!found)
+            return new ArrayList<>();
+        for (Transaction holder : holders) {
+            if (holder != transaction)
+                result.add(holder);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return resourceId + " (holders: " + holders + ", mode: " + mode + ", waiting: " + queue.size() + ")";
+    }
+}
@@ -2,258 +2,1045 @@ package cp1.solution;
 
 import cp1.base.*;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
+import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class MyManager implements TransactionManager {
     private static final boolean debug = false;
-    private ConcurrentHashMap<Thread, Transaction> transactions; // Current thread transaction/
+    private static final long WAIT_FOREVER = Timeouts.FOREVER;
+    private static final int MAX_COMBINED = 64; // Most transactions applied by a combiner at once.
+    private static final int LAZY_SLOTS_FROM = 1 << 16; // Number of resources from which lock slots are created lazily.
+    private ThreadLocal<Transaction> current; // Current thread transaction.
+    private ThreadLocal<Transaction> last; // The last transaction of the thread, reused if nobody may refer to it.
+    private Set<Transaction> waiting; // Transactions waiting for resources, the only ones deadlock detection looks at.
     private LocalTimeProvider timeProvider;
-    private ConcurrentMap<ResourceId, Resource> resources;
-    private ConcurrentMap<ResourceId, Thread> operating; // Which thread has access to resource.
-    private ConcurrentMap<Thread, ResourceId> waiting; // Holds information about a resource that a thred is waiting for.
-    private ConcurrentMap<ResourceId, Semaphore> waitForResource; // For every Resource it stores a semaphore that is used to wait for resource to get free.
-    private ConcurrentMap<ResourceId, Integer> countWaitingForResource; // Holds information about number of threads waiting for resource.
+    private ResourceTable<LockSlot> table; // For every Resource it stores its lock state.
+    private AtomicInteger unorderedWaiting; // Number of waiting transactions that acquire resources out of order.
+    private DeadlockPolicy deadlockPolicy; // Decides what a transaction does when it has to wait.
+    private AbortStatistics abortStatistics; // How long it takes victims to notice they have been aborted.
+    private SnapshotStore snapshots; // Committed versions read by read-only transactions.
+    private ConcurrentMap<ResourceId, Combiner> combiners; // Created for resources once they get hot.
+    private Executor asyncExecutor; // Resumes transactions that wait without a parked thread.
 
     public MyManager(Collection<Resource> resources, LocalTimeProvider timeProvider) {
-        this.resources = new ConcurrentHashMap<>();
-        waitForResource = new ConcurrentHashMap<>();
-        for (Resource r : resources) {
-            this.resources.put(r.getId(), r);
-            waitForResource.put(r.getId(), new Semaphore(0, true));
-        }
-        waiting = new ConcurrentHashMap<>();
+        this(resources, timeProvider, DeadlockPolicy.detection());
+    }
+
+    // Deadlocks are looked for by a background thread every detectionInterval.
+    public MyManager(Collection<Resource> resources, LocalTimeProvider timeProvider, Duration detectionInterval) {
+        this(resources, timeProvider, DeadlockPolicy.detection(detectionInterval));
+    }
+
+    public MyManager(Collection<Resource> resources, LocalTimeProvider timeProvider, DeadlockPolicy deadlockPolicy) {
+        // Only a small part of a large resource set is in use at a time, its lock slots exist only then.
+        table = new ResourceTable<>(resources, r ->
+                new LockSlot(r.getId(), r instanceof EscrowResource ? new Escrow((EscrowResource) r) : null),
+                resources.size() >= LAZY_SLOTS_FROM);
         this.timeProvider = timeProvider;
-        transactions = new ConcurrentHashMap<>();
-        operating = new ConcurrentHashMap<>();
-        countWaitingForResource = new ConcurrentHashMap<>();
+        current = new ThreadLocal<>();
+        last = new ThreadLocal<>();
+        waiting = ConcurrentHashMap.newKeySet();
+        unorderedWaiting = new AtomicInteger(0);
+        this.deadlockPolicy = deadlockPolicy;
+        abortStatistics = new AbortStatistics();
+        snapshots = new SnapshotStore(resources);
+        combiners = new ConcurrentHashMap<>();
+        asyncExecutor = ForkJoinPool.commonPool();
+        deadlockPolicy.attach(this);
     }
 
     @Override
     public void startTransaction() throws AnotherTransactionActiveException {
-        Thread currentThread = Thread.currentThread();
-
         // If there exist other active transaction, raise AnotherTransactionActive.
-        if (transactions.containsKey(currentThread))
+        if (current.get() != null)
             throw new AnotherTransactionActiveException();
-        Transaction transaction = new Transaction(timeProvider.getTime(), currentThread);
-        transactions.put(currentThread, transaction);
+        current.set(newTransaction(IsolationLevel.SERIALIZABLE));
+    }
+
+    // A transaction that nobody has waited for is started again, so that the common path does not allocate.
+    private Transaction newTransaction(IsolationLevel isolation) {
+        Transaction transaction = last.get();
+        if (transaction != null && transaction.isReusable()) {
+            transaction.restart(timeProvider.getTime(), isolation);
+            return transaction;
+        }
+        transaction = new Transaction(timeProvider.getTime(), Thread.currentThread(), isolation);
+        last.set(transaction);
+        return transaction;
+    }
+
+    @Override
+    public void startTransaction(IsolationLevel isolation) throws AnotherTransactionActiveException {
+        startTransaction(isolation, false);
+    }
+
+    // Conservative two-phase locking: all declared resources are acquired up front, in the order
+    // of ids, so the transaction never waits afterwards and never closes a cycle of waiting.
+    @Override
+    public void startTransaction(Collection<ResourceId> declared) throws
+            AnotherTransactionActiveException, UnknownResourceIdException, ActiveTransactionAborted, InterruptedException {
+        if (current.get() != null)
+            throw new AnotherTransactionActiveException();
+        SortedSet<ResourceId> sorted = new TreeSet<>(declared);
+        for (ResourceId rid : sorted) {
+            if (!table.contains(rid))
+                throw new UnknownResourceIdException(rid);
+        }
+        Transaction transaction = newTransaction(IsolationLevel.SERIALIZABLE);
+        transaction.declare(sorted);
+        current.set(transaction);
+        for (ResourceId rid : sorted) {
+            acquire(transaction, rid, LockMode.EXCLUSIVE);
+        }
+    }
+
+    @Override
+    public void startDeferredTransaction() throws AnotherTransactionActiveException {
+        if (current.get() != null)
+            throw new AnotherTransactionActiveException();
+        Transaction transaction = newTransaction(IsolationLevel.SERIALIZABLE);
+        transaction.setDeferred();
+        current.set(transaction);
+    }
+
+    // History of a bulk transaction is moved out of the heap, the transaction is like any other otherwise.
+    @Override
+    public void startBulkTransaction(int spillThreshold) throws AnotherTransactionActiveException {
+        if (current.get() != null)
+            throw new AnotherTransactionActiveException();
+        Transaction transaction = newTransaction(IsolationLevel.SERIALIZABLE);
+        transaction.setBulk(spillThreshold);
+        current.set(transaction);
+    }
+
+    // Read-only snapshot transactions take no locks, so they never wait and are never chosen as victims.
+    @Override
+    public void startReadOnlyTransaction() throws AnotherTransactionActiveException {
+        startTransaction(IsolationLevel.SNAPSHOT, true);
+    }
+
+    private void startTransaction(IsolationLevel isolation, boolean readOnly) throws AnotherTransactionActiveException {
+        if (current.get() != null)
+            throw new AnotherTransactionActiveException();
+        Transaction transaction = newTransaction(isolation);
+        if (isolation == IsolationLevel.SNAPSHOT)
+            transaction.setSnapshot(snapshots.beginSnapshot(), readOnly);
+        current.set(transaction);
     }
 
     @Override
     public void operateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation) throws
             NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
-        Thread currentThread = Thread.currentThread();
-        Transaction currTransaction = transactions.get(currentThread);
-        Resource res = resources.get(rid);
+        operateOnResource(current.get(), rid, operation);
+    }
+
+    private void operateOnResource(Transaction currTransaction, ResourceId rid, ResourceOperation operation) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        Resource res = table.getResource(rid);
         if (currTransaction == null) {
             throw new NoActiveTransactionException();
         }
-        if (currTransaction.getState() == TransactionState.ABORTED) {
-            throw new ActiveTransactionAborted();
+        checkNotAborted(currTransaction);
+        if (res == null || !currTransaction.isDeclared(rid)) {
+            throw new UnknownResourceIdException(rid);
+        }
+
+        if (currTransaction.isDeferred()) {
+            currTransaction.defer(rid, operation);
+            return;
+        }
+        // Access to a resource held already never waits, so it does not make the transaction unordered.
+        if (currTransaction.holds(rid, lockMode(rid, operation))) {
+            execute(currTransaction, res, operation);
+            return;
+        }
+
+        // Only transactions that acquire resources in batches or up front are treated
+        // as ordered, others keep being aborted by their start time.
+        if (!currTransaction.isPredeclared())
+            currTransaction.markUnordered();
+        operate(currTransaction, rid, operation, WAIT_FOREVER);
+    }
+
+    @Override
+    public boolean tryOperateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        return tryOperateOnResourceInCurrentTransaction(rid, operation, Duration.ZERO);
+    }
+
+    @Override
+    public boolean tryOperateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation, Duration timeout) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        Transaction currTransaction = current.get();
+        Resource res = table.getResource(rid);
+        if (currTransaction == null) {
+            throw new NoActiveTransactionException();
         }
-        if (res == null) {
+        checkNotAborted(currTransaction);
+        if (res == null || !currTransaction.isDeclared(rid)) {
             throw new UnknownResourceIdException(rid);
         }
 
-        Thread operatingThread;
-        boolean hasAccess = false;
-        synchronized (operating) {
-            operatingThread = operating.get(rid);
-            int id = operatingThread == null ? -1 : (int) operatingThread.getId();
+        // A deferred transaction does not wait now.
+        if (currTransaction.isDeferred()) {
+            currTransaction.defer(rid, operation);
+            return true;
+        }
+        if (currTransaction.holds(rid, lockMode(rid, operation))) {
+            execute(currTransaction, res, operation);
+            return true;
+        }
+        if (!currTransaction.isPredeclared())
+            currTransaction.markUnordered();
+        return operate(currTransaction, rid, operation, Timeouts.toNanos(timeout));
+    }
+
+    // Returns false if the transaction has not got access to resource within timeoutNanos.
+    private boolean operate(Transaction transaction, ResourceId rid, ResourceOperation operation, long timeoutNanos) throws
+            UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        Resource res = table.getResource(rid);
+        LockMode mode = lockMode(rid, operation);
+        IsolationLevel isolation = transaction.getIsolation();
+        if (isolation == IsolationLevel.SNAPSHOT && (transaction.isReadOnly() || readsSnapshot(transaction, res, mode))) {
+            snapshots.operate(transaction, rid, operation);
+            return true;
+        }
+
+        int owned = transaction.getOwnedSlots().size();
+        if (!acquire(transaction, rid, mode, timeoutNanos))
+            return false;
+        if (isolation == IsolationLevel.SNAPSHOT)
+            checkNotChangedSinceSnapshot(transaction, rid);
+        // A read-committed transaction holds a read lock only while it reads.
+        boolean readLock = isolation == IsolationLevel.READ_COMMITTED && mode == LockMode.SHARED
+                && transaction.getOwnedSlots().size() > owned;
+        try {
+            execute(transaction, res, operation);
+        } finally {
+            if (readLock)
+                releaseSlot(transaction, table.getSlot(rid));
+        }
+        return true;
+    }
+
+    // Versioned resources are changed exclusively, so that copies published at commit hold committed changes only.
+    private LockMode lockMode(ResourceId rid, ResourceOperation operation) {
+        LockMode mode = LockMode.of(operation);
+        if (mode == LockMode.INCREMENT && snapshots.isVersioned(rid))
+            return LockMode.EXCLUSIVE;
+        return mode;
+    }
+
+    // A SNAPSHOT transaction reads versioned resources it has not changed as of its start, without locks.
+    // Others are read under locks, as in a serializable transaction.
+    private boolean readsSnapshot(Transaction transaction, Resource res, LockMode mode) {
+        return mode == LockMode.SHARED && !transaction.hasChanged(res) && snapshots.isVersioned(res.getId());
+    }
+
+    // First committer wins: a SNAPSHOT transaction must not change a resource committed after
+    // its start. The resource is held exclusively, so nobody can commit it in the meantime.
+    private void checkNotChangedSinceSnapshot(Transaction transaction, ResourceId rid) throws ActiveTransactionAborted {
+        if (snapshots.getNewestTime(rid) > transaction.getSnapshotTime())
+            abortItself(transaction);
+    }
+
+    @Override
+    public void operateOnResourcesInCurrentTransaction(List<ResourceOperationPair> operations) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        Transaction currTransaction = current.get();
+        if (currTransaction == null) {
+            throw new NoActiveTransactionException();
+        }
+        checkNotAborted(currTransaction);
+
+        // Mode needed for every resource, in the order of resource ids.
+        SortedMap<ResourceId, LockMode> modes = new TreeMap<>();
+        for (ResourceOperationPair pair : operations) {
+            ResourceId rid = pair.getResourceId();
+            if (!table.contains(rid) || !currTransaction.isDeclared(rid)) {
+                throw new UnknownResourceIdException(rid);
+            }
+            modes.merge(rid, lockMode(rid, pair.getOperation()), LockMode::join);
+        }
+        if (currTransaction.isDeferred()) {
+            for (ResourceOperationPair pair : operations) {
+                currTransaction.defer(pair.getResourceId(), pair.getOperation());
+            }
+            return;
+        }
+        IsolationLevel isolation = currTransaction.getIsolation();
+        List<LockSlot> readLocks = new ArrayList<>();
+        Set<ResourceId> snapshotReads = new HashSet<>();
+        for (Map.Entry<ResourceId, LockMode> entry : modes.entrySet()) {
+            ResourceId rid = entry.getKey();
+            LockMode mode = entry.getValue();
+            if (isolation == IsolationLevel.SNAPSHOT
+                    && (currTransaction.isReadOnly() || readsSnapshot(currTransaction, table.getResource(rid), mode))) {
+                snapshotReads.add(rid);
+                continue;
+            }
+            int owned = currTransaction.getOwnedSlots().size();
+            acquire(currTransaction, rid, mode);
+            if (isolation == IsolationLevel.SNAPSHOT)
+                checkNotChangedSinceSnapshot(currTransaction, rid);
+            if (isolation == IsolationLevel.READ_COMMITTED && mode == LockMode.SHARED
+                    && currTransaction.getOwnedSlots().size() > owned)
+                readLocks.add(table.getSlot(rid));
+        }
+        try {
+            for (ResourceOperationPair pair : operations) {
+                ResourceId rid = pair.getResourceId();
+                if (snapshotReads.contains(rid))
+                    snapshots.operate(currTransaction, rid, pair.getOperation());
+                else
+                    execute(currTransaction, table.getResource(rid), pair.getOperation());
+            }
+        } finally {
+            for (LockSlot slot : readLocks) {
+                releaseSlot(currTransaction, slot);
+            }
+        }
+    }
+
+    // Returns once transaction has access to resource in given mode.
+    private void acquire(Transaction transaction, ResourceId rid, LockMode mode) throws ActiveTransactionAborted, InterruptedException {
+        acquire(transaction, rid, mode, WAIT_FOREVER);
+    }
 
+    // Returns true once transaction has access to resource in given mode, or false
+    // if it has not got access within timeoutNanos. Zero timeout means no waiting at all.
+    private boolean acquire(Transaction transaction, ResourceId rid, LockMode mode, long timeoutNanos) throws
+            ActiveTransactionAborted, InterruptedException {
+        // Mode of a held resource changes only by requests of its holders, so
+        // a resource already held in given mode needs nothing from its slot.
+        if (transaction.holds(rid, mode))
+            return true;
+        LockSlot slot = lockSlot(rid);
+        LockRequest request;
+        boolean alreadyHeld;
+        try {
             if (debug)
-                System.out.println("WĄTEK " + currentThread.getId() + " PROBUJE SIE DOSTAC DO " + rid + " w posiadaniu " + id);
-            hasAccess = (operatingThread == null && countWaitingForResource.getOrDefault(rid, 0) == 0)
-                    || operatingThread == currentThread;
-            if (hasAccess) {
-                operating.put(rid, currentThread);
-                if (debug)
-                    System.out.println("WĄTEK " + currentThread.getId() + " DOSTAJE " + rid + " w posiadaniu " + id);
+                System.out.println("WĄTEK " + Thread.currentThread().getId() + " PROBUJE SIE DOSTAC DO " + slot);
+            alreadyHeld = slot.isHolder(transaction);
+            if (timeoutNanos == 0) {
+                if (!slot.tryAcquire(transaction, mode))
+                    return false;
+                request = null;
             } else {
+                request = slot.acquire(transaction, mode);
+            }
+            if (request != null) {
+                // Waiting for an upgrade or for a resource below the ones already held
+                // may close a cycle, the transaction is not deadlock-free any more.
+                if (alreadyHeld || !transaction.isAboveAcquired(slot.getResourceId()))
+                    transaction.markUnordered();
                 // Mark, that you will be waiting.
-                waiting.put(currentThread, rid);
-                int howManyWaiting = countWaitingForResource.getOrDefault(rid, 0);
-                countWaitingForResource.put(rid, howManyWaiting + 1);
-                if (operatingThread != null) {
-                    checkForCycle(rid);
-                }
+                setWaitingFor(transaction, slot);
             }
+        } finally {
+            slot.unlock();
         }
 
-        if (!hasAccess) {
-            // If you are going to be waiting because a
-            // awaken resource hasnt claimed his resource
-            // dont check for Cycle, it is not possible.
-
-            Semaphore s = waitForResource.get(rid);
+        if (request != null) {
+            boolean unordered = !transaction.isOrdered();
+            if (unordered)
+                unorderedWaiting.incrementAndGet();
             try {
-                s.acquire();
+                if (!deadlockPolicy.beforeWait(this, transaction)) {
+                    if (debug)
+                        System.out.println("WĄTEK " + Thread.currentThread().getId() + " NIE CZEKA, PRZERYWA SIĘ");
+                    // Access granted in the meantime is released with the rest of the transaction.
+                    stopWaiting(transaction, slot, request);
+                    abortItself(transaction);
+                }
+
+                long start = System.nanoTime(); // Elapsed time is counted from it, a deadline could overflow.
+                while (!request.isGranted()) {
+                    // A victim is unparked after being aborted.
+                    if (transaction.getState() == TransactionState.ABORTED) {
+                        if (debug)
+                            System.out.println("WĄTEK " + Thread.currentThread().getId() + " ABORTED WHILE WAITING!");
+                        stopWaiting(transaction, slot, request);
+                        checkNotAborted(transaction);
+                    }
+                    if (timeoutNanos == WAIT_FOREVER) {
+                        LockSupport.park(slot);
+                    } else {
+                        long left = timeoutNanos - (System.nanoTime() - start);
+                        if (left <= 0)
+                            break;
+                        LockSupport.parkNanos(slot, left);
+                    }
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+                if (!request.isGranted()) {
+                    if (debug)
+                        System.out.println("WĄTEK " + Thread.currentThread().getId() + " TIMEOUT WHILE WAITING!");
+                    if (!stopWaiting(transaction, slot, request))
+                        return false;
+                }
             } catch (InterruptedException interruptedException) {
-                // You didnt get access, undo your waiting.
                 if (debug)
                     System.out.println("WĄTEK " + Thread.currentThread().getId() + " INTERRPUTED WHILE WAITING!");
-                synchronized (operating) {
-                    waiting.remove(currentThread, rid);
-
-                    int howManyWaiting = countWaitingForResource.getOrDefault(rid, 0);
-                    countWaitingForResource.put(rid, howManyWaiting - 1);
-                    
-                    // Kod na złośliwy przeplot: Po interrputedException
-                    // podczas czekania na resource wątek nie zdąży zaznaczyć, że nie jest już (jedynym)
-                    // czekającym, w tym samym czasie wątek mający dotyczas dostęp do resource zwalnia go.
-                    // Semafor będzie ustawiony na 1, ale wątek nie chce już z niego korzystać.
-                    // Ustawiamy więc semafor na 0.
-                    if (howManyWaiting == 1 && s.availablePermits() > 0) {
-                        s.drainPermits();
-                    }
-                }
-                if (currTransaction.getState() == TransactionState.ABORTED)
-                    throw new ActiveTransactionAborted();
+                stopWaiting(transaction, slot, request);
+                checkNotAborted(transaction);
                 throw interruptedException;
+            } finally {
+                if (unordered)
+                    unorderedWaiting.decrementAndGet();
             }
             // If a thread made it here, it has access to resource.
-            synchronized (operating) {
-                if (debug) System.out.println("WĄTEK " + currentThread.getId() + " DOSTAJE " + rid + " po czekaniu");
+            if (debug) System.out.println("WĄTEK " + Thread.currentThread().getId() + " DOSTAJE " + slot.getResourceId() + " po czekaniu");
+            setWaitingFor(transaction, null);
+        }
+        transaction.addOwnedSlot(slot, mode);
+        // A cycle checked just before the access was granted may have chosen this transaction.
+        if (request != null)
+            checkNotAborted(transaction);
+        return true;
+    }
+
+    // You didnt get access, undo your waiting. Returns true if access has been
+    // granted in the meantime, it is released with the rest of the transaction then.
+    private boolean stopWaiting(Transaction transaction, LockSlot slot, LockRequest request) {
+        setWaitingFor(transaction, null);
+        boolean granted;
+        slot.lock();
+        try {
+            granted = slot.cancel(request);
+            if (!granted)
+                reclaim(slot);
+        } finally {
+            slot.unlock();
+        }
+        if (granted)
+            transaction.addOwnedSlot(slot, request.getMode());
+        return granted;
+    }
 
-                operating.put(rid, currentThread);
-                waiting.remove(currentThread, rid);
-                int howManyWaiting = countWaitingForResource.getOrDefault(rid, 0);
-                countWaitingForResource.put(rid, howManyWaiting - 1);
+    // Like operateOnResource for a detached transaction, but the operation is executed by the thread
+    // that resumes the transaction once it has got access. Detached transactions are serializable.
+    private CompletableFuture<Void> operateOnResourceAsync(Transaction transaction, ResourceId rid, ResourceOperation operation) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            Resource res = table.getResource(rid);
+            if (transaction == null)
+                throw new NoActiveTransactionException();
+            checkNotAborted(transaction);
+            if (res == null)
+                throw new UnknownResourceIdException(rid);
+            transaction.markUnordered();
+            acquireAsync(transaction, rid, lockMode(rid, operation)).whenComplete((granted, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+                try {
+                    execute(transaction, res, operation);
+                    result.complete(null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.completeExceptionally(e);
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    // Like acquire, but no thread waits: the returned future is completed once the transaction has
+    // access to resource, or exceptionally if it has been aborted in the meantime.
+    private CompletableFuture<Void> acquireAsync(Transaction transaction, ResourceId rid, LockMode mode) {
+        if (transaction.holds(rid, mode))
+            return CompletableFuture.completedFuture(null);
+        LockSlot slot = lockSlot(rid);
+        AsyncWait wait = new AsyncWait(transaction, slot);
+        try {
+            boolean alreadyHeld = slot.isHolder(transaction);
+            wait.request = slot.acquire(transaction, mode, wait::wakeUp);
+            if (wait.request != null) {
+                if (alreadyHeld || !transaction.isAboveAcquired(slot.getResourceId()))
+                    transaction.markUnordered();
+                setWaitingFor(transaction, slot);
             }
+        } finally {
+            slot.unlock();
+        }
+        if (wait.request == null) {
+            transaction.addOwnedSlot(slot, mode);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        wait.unordered = !transaction.isOrdered();
+        if (wait.unordered)
+            unorderedWaiting.incrementAndGet();
+        transaction.setOnAbort(wait::wakeUp);
+        if (!deadlockPolicy.beforeWait(this, transaction))
+            transaction.cancel();
+        // Access may have been granted, or the transaction aborted, before anyone could wake it up.
+        wait.run();
+        return wait.future;
+    }
+
+    // A transaction waiting for a resource without a parked thread. It is resumed on asyncExecutor,
+    // as it is woken up under the slot's lock or by another transaction, and only once.
+    private class AsyncWait implements Runnable {
+        private final Transaction transaction;
+        private final LockSlot slot;
+        private final CompletableFuture<Void> future;
+        private final AtomicBoolean resumed;
+        private LockRequest request; // Set under the slot's lock, before anyone can grant it.
+        private boolean unordered;
+
+        AsyncWait(Transaction transaction, LockSlot slot) {
+            this.transaction = transaction;
+            this.slot = slot;
+            future = new CompletableFuture<>();
+            resumed = new AtomicBoolean(false);
+        }
+
+        void wakeUp() {
+            asyncExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            boolean granted = request.isGranted();
+            if (!granted && transaction.getState() != TransactionState.ABORTED)
+                return;
+            if (!resumed.compareAndSet(false, true))
+                return;
+            transaction.setOnAbort(null);
+            if (granted) {
+                setWaitingFor(transaction, null);
+                transaction.addOwnedSlot(slot, request.getMode());
+            } else {
+                stopWaiting(transaction, slot, request);
+            }
+            if (unordered)
+                unorderedWaiting.decrementAndGet();
+            try {
+                checkNotAborted(transaction);
+                future.complete(null);
+            } catch (ActiveTransactionAborted e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void setWaitingFor(Transaction transaction, LockSlot slot) {
+        transaction.setWaitingFor(slot);
+        if (slot != null)
+            waiting.add(transaction);
+        else
+            waiting.remove(transaction);
+    }
+
+    private void execute(Transaction transaction, Resource res, ResourceOperation operation) throws
+            ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        if (operation instanceof CommutativeResourceOperation) {
+            executeCommutative(transaction, res, (CommutativeResourceOperation) operation);
+            return;
         }
         try {
             operation.execute(res);
         } catch (ResourceOperationException roe) {
             throw roe;
         }
-        if (currentThread.isInterrupted()) {
+        transaction.countOperation();
+        // A running transaction may be aborted by an older one that waits for it.
+        if (transaction.getState() == TransactionState.ABORTED || Thread.currentThread().isInterrupted()) {
             if (debug)
-                System.out.println("WĄTEK " + Thread.currentThread().getId() + " INTERRPUTED WHILE OPERATION! " + rid);
+                System.out.println("WĄTEK " + Thread.currentThread().getId() + " INTERRPUTED WHILE OPERATION! " + res.getId());
             operation.undo(res);
+            checkNotAborted(transaction);
             throw new InterruptedException();
         }
-        currTransaction.updateOperationHistory(res, operation);
+        // Read-only operations have nothing to undo.
+        if (!(operation instanceof ReadOnlyResourceOperation))
+            transaction.updateOperationHistory(res, operation);
     }
 
-    private void checkForCycle(ResourceId resourceId) {
+    // Transactions holding a resource in INCREMENT mode change it at the same time, so the
+    // operations themselves are done under the lock of its slot, unless they are atomic. A bounded
+    // counter is changed only if it stays within bounds whichever of the transactions commit,
+    // its reservations are always made under the lock.
+    private void executeCommutative(Transaction transaction, Resource res, CommutativeResourceOperation operation) throws
+            ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        LockSlot slot = table.getSlot(res.getId());
+        long delta = operation.getDelta();
+        boolean atomic = operation.isAtomic();
+        slot.lock();
+        try {
+            if (!slot.reserve(transaction, delta))
+                throw new ResourceOperationException(res.getId(), operation);
+            if (!atomic)
+                executeReserved(transaction, slot, res, operation);
+        } finally {
+            slot.unlock();
+        }
+        if (atomic)
+            executeReserved(transaction, slot, res, operation);
+        transaction.countOperation();
+        if (transaction.getState() == TransactionState.ABORTED || Thread.currentThread().isInterrupted()) {
+            if (atomic)
+                operation.undo(res);
+            slot.lock();
+            try {
+                if (!atomic)
+                    operation.undo(res);
+                slot.cancelReservation(transaction, delta);
+            } finally {
+                slot.unlock();
+            }
+            checkNotAborted(transaction);
+            throw new InterruptedException();
+        }
+        transaction.updateOperationHistory(res, operation);
+    }
+
+    // The reservation is given back if the operation fails. The lock of the slot is
+    // reentrant, so it may be held by the caller already.
+    private void executeReserved(Transaction transaction, LockSlot slot, Resource res, CommutativeResourceOperation operation) throws
+            ResourceOperationException {
+        try {
+            operation.execute(res);
+        } catch (ResourceOperationException | RuntimeException e) {
+            slot.lock();
+            try {
+                slot.cancelReservation(transaction, operation.getDelta());
+            } finally {
+                slot.unlock();
+            }
+            throw e;
+        }
+    }
+
+    // Searches the wait-for graph for a cycle going through waitingTransaction.
+    // A transaction may wait for several others: all holders of a resource and the
+    // transactions queued ahead of it. No global lock is taken, every slot is inspected
+    // under its own lock, so a cycle that was found is validated once more
+    // before a victim gets aborted.
+    // Only the transaction that closes a cycle can find it, because the last edge
+    // of every cycle is added by a transaction that starts waiting.
+    void checkForCycle(Transaction waitingTransaction, VictimSelection selection) {
         try {
             if (debug)
-                System.out.println("WĄTEK " + Thread.currentThread().getId() + " SPRAWDZA CYKL CZEKAJĄC NA " + resourceId);
-            boolean end = false;
-            boolean isCycle = false;
-            ResourceId startResource = resourceId;
-            Thread youngestThread;
-
-            Thread itThread = operating.get(resourceId);
-            youngestThread = itThread;
-
-            long maxTime = transactions.get(itThread).getStartTime();
-            while (!end) {
-                ResourceId waitingRes = waiting.get(itThread);
-                if (waitingRes == startResource) {
-                    // Cycle found!
-                    isCycle = true;
-                    end = true;
-                }
-                if (waitingRes == null)
-                    return;
-                itThread = operating.get(waitingRes);
-                if (itThread == null)
+                System.out.println("WĄTEK " + Thread.currentThread().getId() + " SPRAWDZA CYKL");
+            List<Transaction> cycle = new ArrayList<>();
+            // Several cycles may go through waitingTransaction, aborted transactions are
+            // skipped by the search, so keep aborting victims until no cycle is left.
+            // A path built from edges that have changed in the meantime may hide a real
+            // cycle, so an unconfirmed cycle is searched for again as well.
+            while (waitingTransaction.getState() != TransactionState.ABORTED) {
+                cycle.clear();
+                if (!findPathBack(waitingTransaction, waitingTransaction, new HashSet<>(), cycle))
                     return;
+                Transaction victim = findVictimIfStillCycle(cycle, selection);
+                if (victim == null)
+                    continue;
 
-                Transaction itTransaction = transactions.get(itThread);
+                abort(victim);
+            }
+        } finally {
+            if (debug) System.out.println("WĄTEK " + Thread.currentThread().getId() + " kończy sprawdzanie!");
+        }
+    }
 
-                // Shouldnt be nessesarry, but lets check anyway.
-                if (itTransaction.getState() == TransactionState.ABORTED)
-                    return;
+    // Called periodically by DeadlockDetector. The wait-for graph is collected twice
+    // and only edges seen both times are kept, edges of a real deadlock never change.
+    // Every cycle of such snapshot is validated against the slots before its victim is aborted.
+    void detectDeadlocks(VictimSelection selection) {
+        Map<Transaction, List<Transaction>> graph = collectWaitForGraph();
+        if (graph.isEmpty())
+            return;
+        Map<Transaction, List<Transaction>> again = collectWaitForGraph();
+        graph.keySet().retainAll(again.keySet());
+        for (Map.Entry<Transaction, List<Transaction>> entry : graph.entrySet())
+            entry.getValue().retainAll(again.get(entry.getKey()));
 
-                long time = itTransaction.getStartTime();
-                if (time > maxTime || (time == maxTime && itThread.getId() > youngestThread.getId())) {
-                    maxTime = time;
-                    youngestThread = itThread;
-                }
+        List<Transaction> cycle = new ArrayList<>();
+        while (findAnyCycle(graph, cycle)) {
+            Transaction victim = findVictimIfStillCycle(cycle, selection);
+            // A cycle that is gone has lost one of its transactions anyway.
+            Transaction removed = victim == null ? cycle.get(0) : victim;
+            if (victim != null)
+                abort(victim);
+            graph.remove(removed);
+            cycle.clear();
+        }
+    }
+
+    private Map<Transaction, List<Transaction>> collectWaitForGraph() {
+        Map<Transaction, List<Transaction>> graph = new HashMap<>();
+        for (Transaction t : waiting) {
+            // An aborted transaction is going to free its resources anyway.
+            if (t.getState() == TransactionState.ABORTED)
+                continue;
+            List<Transaction> waitedFor = getWaitedFor(t);
+            if (!waitedFor.isEmpty())
+                graph.put(t, new ArrayList<>(waitedFor));
+        }
+        return graph;
+    }
+
+    // Depth-first search over the whole graph, cycle holds the transactions of the first cycle found.
+    private boolean findAnyCycle(Map<Transaction, List<Transaction>> graph, List<Transaction> cycle) {
+        Set<Transaction> done = new HashSet<>();
+        for (Transaction t : graph.keySet()) {
+            if (!done.contains(t) && findCycleFrom(t, graph, done, cycle))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean findCycleFrom(Transaction current, Map<Transaction, List<Transaction>> graph,
+                                  Set<Transaction> done, List<Transaction> path) {
+        path.add(current);
+        for (Transaction next : graph.getOrDefault(current, Collections.emptyList())) {
+            int index = path.indexOf(next);
+            if (index >= 0) {
+                path.subList(0, index).clear();
+                return true;
+            }
+            if (!done.contains(next) && graph.containsKey(next) && findCycleFrom(next, graph, done, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        done.add(current);
+        return false;
+    }
+
+    // Throws if the transaction has been aborted, called by its own thread. The first time
+    // an abort by another transaction is noticed, its delay is recorded.
+    private void checkNotAborted(Transaction transaction) throws ActiveTransactionAborted {
+        if (transaction.getState() == TransactionState.ABORTED) {
+            long abortedAt = transaction.observeAbort();
+            if (abortedAt != 0)
+                abortStatistics.record(System.nanoTime() - abortedAt);
+            throw new ActiveTransactionAborted();
+        }
+    }
+
+    // Always throws, the transaction is aborted by its own thread.
+    private void abortItself(Transaction transaction) throws ActiveTransactionAborted {
+        transaction.cancel();
+        checkNotAborted(transaction);
+    }
+
+    public AbortStatistics getAbortStatistics() {
+        return abortStatistics;
+    }
+
+    boolean isUnorderedWaiting() {
+        return unorderedWaiting.get() > 0;
+    }
+
+    void abort(Transaction victim) {
+        if (debug) System.out.println("Cykl wykryty, watek: " + victim.getThread().getId());
+        victim.abort();
+    }
+
+    // Make sure that the cycle still exists, edges of a real deadlock never change.
+    // Returns the victim, the cheapest to abort of transactions that acquire resources
+    // out of order, or null if some edge is gone.
+    private Transaction findVictimIfStillCycle(List<Transaction> cycle, VictimSelection selection) {
+        Transaction victim = null;
+        for (int i = 0; i < cycle.size(); i++) {
+            Transaction t = cycle.get(i);
+            if (!getWaitedFor(t).contains(cycle.get((i + 1) % cycle.size())))
+                return null;
+            if (victim == null || isBetterVictim(t, victim, selection))
+                victim = t;
+        }
+        return victim;
+    }
+
+    // Ordered transactions never close a cycle on their own, they are chosen only if there is no other choice.
+    private static boolean isBetterVictim(Transaction t, Transaction other, VictimSelection selection) {
+        if (t.isOrdered() != other.isOrdered())
+            return other.isOrdered();
+        return selection.isCheaperVictim(t, other);
+    }
+
+    // Depth-first search, path holds transactions from start to the current one.
+    private boolean findPathBack(Transaction current, Transaction start, Set<Transaction> visited, List<Transaction> path) {
+        path.add(current);
+        for (Transaction next : getWaitedFor(current)) {
+            if (next == start)
+                return true;
+            // An aborted transaction is going to free its resources anyway.
+            if (next.getState() == TransactionState.ABORTED)
+                continue;
+            if (visited.add(next) && findPathBack(next, start, visited, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    List<Transaction> getWaitedFor(Transaction transaction) {
+        LockSlot slot = transaction.getWaitingFor();
+        if (slot == null)
+            return Collections.emptyList();
+        slot.lock();
+        try {
+            return slot.getWaitedFor(transaction);
+        } finally {
+            slot.unlock();
+        }
+    }
+
+    // Transactions on a hot resource are combined, others run as usual.
+    @Override
+    public void operateOnResourceInNewTransaction(ResourceId rid, List<ResourceOperation> operations) throws
+            AnotherTransactionActiveException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        Thread currentThread = Thread.currentThread();
+        if (current.get() != null)
+            throw new AnotherTransactionActiveException();
+        if (!table.contains(rid))
+            throw new UnknownResourceIdException(rid);
+
+        LockSlot slot = table.getSlot(rid);
+        Combiner combiner = combiners.get(rid);
+        if ((slot != null && slot.isHot()) || (combiner != null && combiner.isCombining())) {
+            if (combiner == null)
+                combiner = combiners.computeIfAbsent(rid, id -> new Combiner(this, id));
+            CombinedTransaction transaction = new CombinedTransaction(operations, currentThread);
+            combiner.submit(transaction);
+            transaction.checkCommitted();
+            return;
+        }
+        startTransaction();
+        try {
+            for (ResourceOperation operation : operations) {
+                operateOnResourceInCurrentTransaction(rid, operation);
             }
-            if (isCycle) {
-                if (debug) System.out.println("START TIMES");
-                for (Map.Entry<Thread, Transaction> e : transactions.entrySet()) {
-                    if (debug) System.out.println(e.getKey().getId() + " start time = " + e.getValue().getStartTime());
+            commitCurrentTransaction();
+        } catch (NoActiveTransactionException e) {
+            throw new AssertionError(e);
+        } finally {
+            rollbackCurrentTransaction();
+        }
+    }
+
+    // Called by the combiner of a hot resource. Queued transactions are applied one after another
+    // under a single exclusive acquisition, until there are none or MAX_COMBINED have been applied.
+    // Each of them is committed unless an operation of its own fails, then only it is rolled back.
+    void applyCombined(ResourceId rid, Queue<CombinedTransaction> queue) throws ActiveTransactionAborted, InterruptedException {
+        Transaction batch = new Transaction(timeProvider.getTime(), Thread.currentThread());
+        Resource res = table.getResource(rid);
+        List<CombinedTransaction> applied = new ArrayList<>();
+        try {
+            acquire(batch, rid, LockMode.EXCLUSIVE);
+            LockSlot slot = table.getSlot(rid);
+            boolean changed = false;
+            CombinedTransaction transaction;
+            while (applied.size() < MAX_COMBINED && (transaction = queue.poll()) != null) {
+                applied.add(transaction);
+                // An older transaction waiting for resource may abort the batch, the rest is left to it.
+                if (batch.getState() == TransactionState.ABORTED)
+                    transaction.abort();
+                else
+                    changed |= applyCombined(batch, slot, res, transaction);
+            }
+            if (changed)
+                snapshots.publish(Collections.singletonList(res));
+        } finally {
+            batch.finish();
+            releaseResources(batch, true);
+            for (CombinedTransaction transaction : applied) {
+                transaction.complete();
+            }
+        }
+    }
+
+    // Returns true if the transaction has changed resource. Whatever an operation throws, errors included,
+    // the transaction is undone and fails with it, so that it is never reported as committed.
+    private boolean applyCombined(Transaction batch, LockSlot slot, Resource res, CombinedTransaction transaction) {
+        List<ResourceOperation> operations = transaction.getOperations();
+        int executed = 0;
+        boolean changed = false;
+        try {
+            for (ResourceOperation operation : operations) {
+                reserve(batch, slot, res, operation);
+                try {
+                    operation.execute(res);
+                } catch (Throwable e) {
+                    cancelReservation(batch, slot, operation);
+                    throw e;
                 }
-                if (debug) System.out.println("Cykl wykryty, watek: " + youngestThread.getId());
-                // cancel
-                Transaction toCancel = transactions.get(youngestThread);
-                toCancel.cancel();
-                youngestThread.interrupt();
+                executed++;
+                changed |= !(operation instanceof ReadOnlyResourceOperation);
+            }
+            return changed;
+        } catch (Throwable e) {
+            for (int i = executed - 1; i >= 0; i--) {
+                operations.get(i).undo(res);
+                cancelReservation(batch, slot, operations.get(i));
             }
+            transaction.fail(e);
+            return false;
+        }
+    }
+
+    // The batch holds resource exclusively, so its escrow is reset when it is released.
+    private void reserve(Transaction batch, LockSlot slot, Resource res, ResourceOperation operation) throws
+            ResourceOperationException {
+        if (!(operation instanceof CommutativeResourceOperation))
+            return;
+        slot.lock();
+        try {
+            if (!slot.reserve(batch, ((CommutativeResourceOperation) operation).getDelta()))
+                throw new ResourceOperationException(res.getId(), operation);
         } finally {
-            if (debug) System.out.println("WĄTEK " + Thread.currentThread().getId() + " kończy sprawdzanie!");
+            slot.unlock();
+        }
+    }
+
+    private void cancelReservation(Transaction batch, LockSlot slot, ResourceOperation operation) {
+        if (!(operation instanceof CommutativeResourceOperation))
+            return;
+        slot.lock();
+        try {
+            slot.cancelReservation(batch, ((CommutativeResourceOperation) operation).getDelta());
+        } finally {
+            slot.unlock();
         }
     }
 
     @Override
     public void commitCurrentTransaction() throws NoActiveTransactionException, ActiveTransactionAborted {
-        Thread currentThread = Thread.currentThread();
-        Transaction currentTransaction = transactions.get(currentThread);
+        commit(current.get());
+        // Set rather than removed, so that the thread's entry is kept for the next transaction.
+        current.set(null);
+        if (debug) System.out.println("WĄTEK " + Thread.currentThread().getId() + " usuwa transakcję!");
+    }
+
+    private void commit(Transaction currentTransaction) throws NoActiveTransactionException, ActiveTransactionAborted {
         if (currentTransaction == null)
             throw new NoActiveTransactionException();
-        if (currentTransaction.getState() == TransactionState.ABORTED)
-            throw new ActiveTransactionAborted();
+        if (currentTransaction.isDeferred())
+            applyDeferred(currentTransaction);
+        if (!currentTransaction.finish())
+            checkNotAborted(currentTransaction);
 
+        // Resources are still held, so their copies are the committed state.
+        snapshots.publish(currentTransaction.getResourcesChanged());
+        endTransaction(currentTransaction, true);
+    }
 
-        // Free resources.
-        Set<Resource> changedResources = currentTransaction.getResourcesChanged();
-        synchronized (operating) {
-            for (Map.Entry<ResourceId, Thread> entry : operating.entrySet()) {
-                if (entry.getValue() == currentThread) {
-                    ResourceId rid = entry.getKey();
-                    int howManyWaiting = countWaitingForResource.getOrDefault(rid, 0);
-                    operating.remove(rid);
-                    if (debug) System.out.println("WĄTEK " + currentThread.getId() + " removing " + rid);
-                    if (howManyWaiting > 0) {
-                        Semaphore s = waitForResource.get(rid);
-                        s.release();
-                    }
-                }
+    // Resources of a deferred transaction are held only while its operations are executed at commit.
+    // They are acquired in the order of ids, so deferred transactions never deadlock with each other.
+    // Commit cannot report a failed operation or an interrupt, the transaction is aborted instead.
+    private void applyDeferred(Transaction transaction) throws ActiveTransactionAborted {
+        checkNotAborted(transaction);
+        List<ResourceOperationPair> operations = transaction.takeDeferred();
+        SortedMap<ResourceId, LockMode> modes = new TreeMap<>();
+        for (ResourceOperationPair pair : operations) {
+            modes.merge(pair.getResourceId(), lockMode(pair.getResourceId(), pair.getOperation()), LockMode::join);
+        }
+        try {
+            for (Map.Entry<ResourceId, LockMode> entry : modes.entrySet()) {
+                acquire(transaction, entry.getKey(), entry.getValue());
+            }
+            for (ResourceOperationPair pair : operations) {
+                execute(transaction, table.getResource(pair.getResourceId()), pair.getOperation());
             }
-            transactions.remove(currentThread);
-            if (debug) System.out.println("WĄTEK " + currentThread.getId() + " usuwa transakcję!");
+        } catch (ResourceOperationException e) {
+            abortItself(transaction);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortItself(transaction);
         }
     }
 
     @Override
     public void rollbackCurrentTransaction() {
-        Thread currentThread = Thread.currentThread();
-        Transaction currentTransaction = transactions.get(currentThread);
+        Transaction currentTransaction = current.get();
         if (currentTransaction == null)
             return;
-        currentTransaction.rollback();
-        // Free resources.
-        Set<Resource> changedResources = currentTransaction.getResourcesChanged();
-        synchronized (operating) {
-            for (Map.Entry<ResourceId, Thread> entry : operating.entrySet()) {
-                if (entry.getValue() == currentThread) {
-                    ResourceId rid = entry.getKey();
-                    int howManyWaiting = countWaitingForResource.getOrDefault(rid, 0);
-                    operating.remove(rid);
-                    if (debug) System.out.println("WĄTEK " + currentThread.getId() + " removing " + rid);
-                    if (howManyWaiting > 0) {
-                        Semaphore s = waitForResource.get(rid);
-                        s.release();
-                    }
-                }
+        rollback(currentTransaction);
+        current.set(null);
+        if (debug) System.out.println("WĄTEK " + Thread.currentThread().getId() + " usuwa transakcję!");
+    }
+
+    private void rollback(Transaction transaction) {
+        transaction.finish();
+        transaction.rollback(table);
+        endTransaction(transaction, false);
+    }
+
+    private void endTransaction(Transaction transaction, boolean committed) {
+        if (transaction.getIsolation() == IsolationLevel.SNAPSHOT)
+            snapshots.endSnapshot(transaction.getSnapshotTime());
+        releaseResources(transaction, committed);
+        transaction.clearHistory();
+    }
+
+    private void releaseSlot(Transaction transaction, LockSlot slot) {
+        slot.lock();
+        try {
+            slot.release(transaction);
+            reclaim(slot);
+        } finally {
+            slot.unlock();
+        }
+        transaction.removeOwnedSlot(slot);
+    }
+
+    // Free resources, only those owned by transaction are visited.
+    private void releaseResources(Transaction transaction, boolean committed) {
+        List<LockSlot> owned = transaction.getOwnedSlots();
+        for (int i = 0; i < owned.size(); i++) {
+            LockSlot slot = owned.get(i);
+            slot.lock();
+            try {
+                slot.end(transaction, committed);
+                reclaim(slot);
+            } finally {
+                slot.unlock();
             }
-            transactions.remove(currentThread);
-            if (debug) System.out.println("WĄTEK " + currentThread.getId() + " usuwa transakcję!");
+            if (debug) System.out.println("WĄTEK " + Thread.currentThread().getId() + " removing " + slot.getResourceId());
+        }
+        transaction.clearOwnedSlots();
+    }
+
+    // Returns the slot of a known resource, locked. A slot of a lazy table may be
+    // removed between the lookup and the lock, it is looked up again then.
+    private LockSlot lockSlot(ResourceId rid) {
+        while (true) {
+            LockSlot slot = table.getOrCreateSlot(rid);
+            slot.lock();
+            if (!slot.isRetired())
+                return slot;
+            slot.unlock();
+        }
+    }
+
+    // Called under the slot's lock. A free slot of a lazy table is removed, a new one is created when needed.
+    private void reclaim(LockSlot slot) {
+        if (table.isLazy() && slot.isFree()) {
+            slot.retire();
+            table.removeSlot(slot.getResourceId(), slot);
         }
     }
 
     @Override
     public boolean isTransactionActive() {
-        Transaction t = transactions.get(Thread.currentThread());
+        Transaction t = current.get();
         if (t == null)
             return false;
         return true;
@@ -261,18 +1048,71 @@ public class MyManager implements TransactionManager {
 
     @Override
     public boolean isTransactionAborted() {
-        Thread thread = Thread.currentThread();
-        Transaction t = transactions.get(thread);
+        Transaction t = current.get();
         if (t == null)
             return false;
         return t.getState() == TransactionState.ABORTED;
     }
 
+    // Detached transactions take part in deadlock detection like any other, the thread that
+    // makes a call is the one that waits and is woken up. They are never reused.
+    @Override
+    public TransactionHandle begin() {
+        Transaction transaction = new Transaction(timeProvider.getTime(), Thread.currentThread(),
+                Transaction.nextDetachedId(), IsolationLevel.SERIALIZABLE);
+        return new Handle(transaction);
+    }
+
+    private class Handle implements TransactionHandle {
+        private Transaction transaction; // Null once committed or rolled back.
+
+        Handle(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void operateOnResource(ResourceId rid, ResourceOperation operation) throws
+                NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+            if (transaction != null)
+                transaction.setThread(Thread.currentThread());
+            MyManager.this.operateOnResource(transaction, rid, operation);
+        }
+
+        @Override
+        public CompletableFuture<Void> operateAsync(ResourceId rid, ResourceOperation operation) {
+            return operateOnResourceAsync(transaction, rid, operation);
+        }
+
+        @Override
+        public void commit() throws NoActiveTransactionException, ActiveTransactionAborted {
+            if (transaction != null)
+                transaction.setThread(Thread.currentThread());
+            MyManager.this.commit(transaction);
+            transaction = null;
+        }
+
+        @Override
+        public void rollback() {
+            if (transaction == null)
+                return;
+            transaction.setThread(Thread.currentThread());
+            MyManager.this.rollback(transaction);
+            transaction = null;
+        }
+
+        @Override
+        public boolean isActive() {
+            return transaction != null;
+        }
+
+        @Override
+        public boolean isAborted() {
+            return transaction != null && transaction.getState() == TransactionState.ABORTED;
+        }
+    }
+
     public void print() {
-        if (debug) System.out.println(transactions.size() + ", "
-                + operating.size() + ", "
-                + waiting.size() + ", "
-                + waitForResource.size() + ", "
-                + countWaitingForResource);
+        if (debug) System.out.println(waiting.size() + ", "
+                + table.getSlots());
     }
 }
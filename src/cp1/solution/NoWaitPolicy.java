@@ -0,0 +1,11 @@
+package cp1.solution;
+
+// A transaction that cannot get access to a resource at once aborts itself,
+// so the wait-for graph has no edges at all.
+class NoWaitPolicy implements DeadlockPolicy {
+
+    @Override
+    public boolean beforeWait(MyManager manager, Transaction waiting) {
+        return false;
+    }
+}
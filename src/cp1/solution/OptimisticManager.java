@@ -0,0 +1,419 @@
+package cp1.solution;
+
+import cp1.base.*;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+// Transaction manager with optimistic concurrency control, no transaction ever waits for another.
+// Reads remember the version of resource and are validated at commit, writes take the write
+// intent of resource and change it in place, keeping history to undo. A transaction that meets
+// a resource changed by another one is aborted instead of waiting, so there are no deadlocks.
+public class OptimisticManager implements TransactionManager {
+    private static final boolean debug = false;
+    private static final long RETRY_NANOS = 10_000; // Pause between attempts of a timed try.
+    private ConcurrentHashMap<Thread, OptimisticTransaction> transactions;
+    private LocalTimeProvider timeProvider;
+    private ResourceTable<VersionSlot> table; // For every Resource it stores its version.
+    private SnapshotStore snapshots; // Committed versions read by SNAPSHOT transactions.
+
+    public OptimisticManager(Collection<Resource> resources, LocalTimeProvider timeProvider) {
+        table = new ResourceTable<>(resources, r -> new VersionSlot());
+        this.timeProvider = timeProvider;
+        transactions = new ConcurrentHashMap<>();
+        snapshots = new SnapshotStore(resources);
+    }
+
+    @Override
+    public void startTransaction() throws AnotherTransactionActiveException {
+        startTransaction(IsolationLevel.SERIALIZABLE, false);
+    }
+
+    @Override
+    public void startTransaction(IsolationLevel isolation) throws AnotherTransactionActiveException {
+        startTransaction(isolation, false);
+    }
+
+    @Override
+    public void startDeferredTransaction() throws AnotherTransactionActiveException {
+        Thread currentThread = Thread.currentThread();
+        if (transactions.containsKey(currentThread))
+            throw new AnotherTransactionActiveException();
+        OptimisticTransaction transaction = new OptimisticTransaction(timeProvider.getTime(), currentThread, IsolationLevel.SERIALIZABLE);
+        transaction.setDeferred();
+        transactions.put(currentThread, transaction);
+    }
+
+    @Override
+    public void startBulkTransaction(int spillThreshold) throws AnotherTransactionActiveException {
+        Thread currentThread = Thread.currentThread();
+        if (transactions.containsKey(currentThread))
+            throw new AnotherTransactionActiveException();
+        OptimisticTransaction transaction = new OptimisticTransaction(timeProvider.getTime(), currentThread, IsolationLevel.SERIALIZABLE);
+        transaction.setBulk(spillThreshold);
+        transactions.put(currentThread, transaction);
+    }
+
+    // Nothing is acquired up front, the declared resources only limit what the transaction may use.
+    @Override
+    public void startTransaction(Collection<ResourceId> declared) throws
+            AnotherTransactionActiveException, UnknownResourceIdException {
+        Thread currentThread = Thread.currentThread();
+        if (transactions.containsKey(currentThread))
+            throw new AnotherTransactionActiveException();
+        for (ResourceId rid : declared) {
+            if (!table.contains(rid))
+                throw new UnknownResourceIdException(rid);
+        }
+        OptimisticTransaction transaction = new OptimisticTransaction(timeProvider.getTime(), currentThread, IsolationLevel.SERIALIZABLE);
+        transaction.declare(new HashSet<>(declared));
+        transactions.put(currentThread, transaction);
+    }
+
+    // Snapshot reads are never validated, what they read has been committed before the transaction started.
+    @Override
+    public void startReadOnlyTransaction() throws AnotherTransactionActiveException {
+        startTransaction(IsolationLevel.SNAPSHOT, true);
+    }
+
+    private void startTransaction(IsolationLevel isolation, boolean readOnly) throws AnotherTransactionActiveException {
+        Thread currentThread = Thread.currentThread();
+        if (transactions.containsKey(currentThread))
+            throw new AnotherTransactionActiveException();
+        OptimisticTransaction transaction = new OptimisticTransaction(timeProvider.getTime(), currentThread, isolation);
+        if (isolation == IsolationLevel.SNAPSHOT)
+            transaction.setSnapshot(snapshots.beginSnapshot(), readOnly);
+        transactions.put(currentThread, transaction);
+    }
+
+    @Override
+    public void operateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        operateOnResource(transactions.get(Thread.currentThread()), rid, operation);
+    }
+
+    private void operateOnResource(OptimisticTransaction currTransaction, ResourceId rid, ResourceOperation operation) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        checkActive(currTransaction, rid);
+        if (currTransaction.isDeferred())
+            currTransaction.defer(rid, operation);
+        else
+            operate(currTransaction, rid, operation, true);
+    }
+
+    @Override
+    public boolean tryOperateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        return tryOperateOnResourceInCurrentTransaction(rid, operation, Duration.ZERO);
+    }
+
+    // A resource in use by another transaction is tried again until timeout,
+    // giving up does not abort the transaction. A read overtaken by a write of
+    // a resource that is not versioned has been executed already, that aborts it.
+    @Override
+    public boolean tryOperateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation, Duration timeout) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        OptimisticTransaction currTransaction = getCurrentTransaction(rid);
+        if (currTransaction.isDeferred()) {
+            currTransaction.defer(rid, operation);
+            return true;
+        }
+        long timeoutNanos = Timeouts.toNanos(timeout);
+        long start = System.nanoTime(); // Elapsed time is counted from it, a deadline could overflow.
+        while (!operate(currTransaction, rid, operation, false)) {
+            long left = timeoutNanos - (System.nanoTime() - start);
+            if (left <= 0)
+                return false;
+            LockSupport.parkNanos(Math.min(left, RETRY_NANOS));
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+        return true;
+    }
+
+    // Nobody waits, so operations are simply done in the given order.
+    @Override
+    public void operateOnResourcesInCurrentTransaction(List<ResourceOperationPair> operations) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        OptimisticTransaction currTransaction = getCurrentTransaction(null);
+        for (ResourceOperationPair pair : operations) {
+            if (!table.contains(pair.getResourceId()) || !currTransaction.isDeclared(pair.getResourceId()))
+                throw new UnknownResourceIdException(pair.getResourceId());
+        }
+        for (ResourceOperationPair pair : operations) {
+            if (currTransaction.isDeferred())
+                currTransaction.defer(pair.getResourceId(), pair.getOperation());
+            else
+                operate(currTransaction, pair.getResourceId(), pair.getOperation(), true);
+        }
+    }
+
+    // Nobody waits here, so there is nothing to gain from combining transactions.
+    @Override
+    public void operateOnResourceInNewTransaction(ResourceId rid, List<ResourceOperation> operations) throws
+            AnotherTransactionActiveException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        startTransaction();
+        try {
+            for (ResourceOperation operation : operations) {
+                operateOnResourceInCurrentTransaction(rid, operation);
+            }
+            commitCurrentTransaction();
+        } catch (NoActiveTransactionException e) {
+            throw new AssertionError(e);
+        } finally {
+            rollbackCurrentTransaction();
+        }
+    }
+
+    // Returns the active, not aborted transaction of the current thread. Checks rid unless it is null.
+    private OptimisticTransaction getCurrentTransaction(ResourceId rid) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted {
+        OptimisticTransaction currTransaction = transactions.get(Thread.currentThread());
+        checkActive(currTransaction, rid);
+        return currTransaction;
+    }
+
+    private void checkActive(OptimisticTransaction currTransaction, ResourceId rid) throws
+            NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted {
+        if (currTransaction == null)
+            throw new NoActiveTransactionException();
+        if (currTransaction.getState() == TransactionState.ABORTED)
+            throw new ActiveTransactionAborted();
+        if (rid != null && (!table.contains(rid) || !currTransaction.isDeclared(rid)))
+            throw new UnknownResourceIdException(rid);
+    }
+
+    // Returns false if the resource is in use by another transaction and abortOnConflict is not set,
+    // nothing has been done then. Otherwise such conflict aborts the transaction, and so does a write
+    // noticed only after a read has been executed, as the read cannot be taken back.
+    private boolean operate(OptimisticTransaction transaction, ResourceId rid, ResourceOperation operation, boolean abortOnConflict) throws
+            UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        VersionSlot slot = table.getSlot(rid);
+        Resource res = table.getResource(rid);
+        IsolationLevel isolation = transaction.getIsolation();
+
+        // Resources written by the transaction are not touched by anybody else.
+        if (slot.isWriter(transaction)) {
+            execute(transaction, res, operation);
+            return true;
+        }
+
+        if (isolation == IsolationLevel.SNAPSHOT && (transaction.isReadOnly()
+                || operation instanceof ReadOnlyResourceOperation && snapshots.isVersioned(rid))) {
+            snapshots.operate(transaction, rid, operation);
+            return true;
+        }
+
+        if (operation instanceof ReadOnlyResourceOperation) {
+            long version = slot.getVersion();
+            if (!VersionSlot.isStable(version))
+                return conflict(transaction, abortOnConflict);
+            if (!abortOnConflict && res instanceof VersionedResource) {
+                // A copy taken in a single version is read instead, giving up leaves nothing executed.
+                Resource copy = ((VersionedResource) res).copy();
+                if (!slot.validate(version))
+                    return false;
+                execute(transaction, copy, operation);
+            } else {
+                execute(transaction, res, operation);
+                // The resource might have been changed while it was being read.
+                if (!slot.validate(version))
+                    abort(transaction);
+            }
+            // A read-committed transaction only needs to have read a committed version.
+            if (isolation != IsolationLevel.READ_COMMITTED && !transaction.recordRead(slot, version))
+                abort(transaction);
+            return true;
+        }
+
+        if (!slot.tryTakeIntent(transaction))
+            return conflict(transaction, abortOnConflict);
+        transaction.getWriteIntents().add(slot);
+        // Nobody else changes the version now, it is one more than when read if nobody wrote in between.
+        Long readVersion = transaction.getReadVersion(slot);
+        if (readVersion != null && slot.getVersion() != readVersion + 1)
+            abort(transaction);
+        // First committer wins: nobody commits the resource while the intent is held.
+        if (isolation == IsolationLevel.SNAPSHOT && snapshots.getNewestTime(rid) > transaction.getSnapshotTime())
+            abort(transaction);
+        execute(transaction, res, operation);
+        return true;
+    }
+
+    private static boolean conflict(Transaction transaction, boolean abortOnConflict) throws ActiveTransactionAborted {
+        if (abortOnConflict)
+            abort(transaction);
+        return false;
+    }
+
+    // The transaction stays active until it is rolled back.
+    private static void abort(Transaction transaction) throws ActiveTransactionAborted {
+        if (debug) System.out.println("WĄTEK " + Thread.currentThread().getId() + " KONFLIKT, PRZERYWA SIĘ");
+        transaction.cancel();
+        throw new ActiveTransactionAborted();
+    }
+
+    private void execute(Transaction transaction, Resource res, ResourceOperation operation) throws
+            ResourceOperationException, InterruptedException {
+        // Commutative operations take write intents too, so the transaction is the only one changing the counter.
+        if (operation instanceof CommutativeResourceOperation && res instanceof EscrowResource) {
+            EscrowResource counter = (EscrowResource) res;
+            long value = counter.getValue() + ((CommutativeResourceOperation) operation).getDelta();
+            if (value < counter.getLowerBound() || value > counter.getUpperBound())
+                throw new ResourceOperationException(res.getId(), operation);
+        }
+        operation.execute(res);
+        transaction.countOperation();
+        if (Thread.currentThread().isInterrupted()) {
+            operation.undo(res);
+            throw new InterruptedException();
+        }
+        // Read-only operations have nothing to undo.
+        if (!(operation instanceof ReadOnlyResourceOperation))
+            transaction.updateOperationHistory(res, operation);
+    }
+
+    // Every resource read has to be in the same version still, those written are
+    // protected by the intents, which are held until validation is over.
+    @Override
+    public void commitCurrentTransaction() throws NoActiveTransactionException, ActiveTransactionAborted {
+        Thread currentThread = Thread.currentThread();
+        commit(transactions.get(currentThread));
+        transactions.remove(currentThread);
+    }
+
+    private void commit(OptimisticTransaction currentTransaction) throws NoActiveTransactionException, ActiveTransactionAborted {
+        if (currentTransaction == null)
+            throw new NoActiveTransactionException();
+        if (currentTransaction.getState() == TransactionState.ABORTED)
+            throw new ActiveTransactionAborted();
+        if (currentTransaction.isDeferred())
+            applyDeferred(currentTransaction);
+
+        // Reads from the snapshot and read-committed reads are not recorded, so not validated.
+        for (Map.Entry<VersionSlot, Long> read : currentTransaction.getReadVersions().entrySet()) {
+            VersionSlot slot = read.getKey();
+            // Checked when the intent was taken.
+            if (slot.isWriter(currentTransaction))
+                continue;
+            if (slot.getVersion() != read.getValue())
+                abort(currentTransaction);
+        }
+        // Intents are still held, so copies of written resources are the committed state.
+        snapshots.publish(currentTransaction.getResourcesChanged());
+        currentTransaction.finish();
+        endTransaction(currentTransaction);
+    }
+
+    // Operations of a deferred transaction are executed at commit, just before validation,
+    // so its write intents are held only for the commit. Commit cannot report a failed
+    // operation or an interrupt, the transaction is aborted instead.
+    private void applyDeferred(OptimisticTransaction transaction) throws ActiveTransactionAborted {
+        try {
+            for (ResourceOperationPair pair : transaction.takeDeferred()) {
+                operate(transaction, pair.getResourceId(), pair.getOperation(), true);
+            }
+        } catch (UnknownResourceIdException | ResourceOperationException e) {
+            abort(transaction);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(transaction);
+        }
+    }
+
+    @Override
+    public void rollbackCurrentTransaction() {
+        Thread currentThread = Thread.currentThread();
+        OptimisticTransaction currentTransaction = transactions.get(currentThread);
+        if (currentTransaction == null)
+            return;
+        rollback(currentTransaction);
+        transactions.remove(currentThread);
+    }
+
+    private void rollback(OptimisticTransaction transaction) {
+        transaction.finish();
+        transaction.rollback();
+        endTransaction(transaction);
+    }
+
+    private void endTransaction(OptimisticTransaction transaction) {
+        if (transaction.getIsolation() == IsolationLevel.SNAPSHOT)
+            snapshots.endSnapshot(transaction.getSnapshotTime());
+        releaseIntents(transaction);
+        // Closes the file of a bulk transaction.
+        transaction.clearHistory();
+    }
+
+    private void releaseIntents(OptimisticTransaction transaction) {
+        for (VersionSlot slot : transaction.getWriteIntents()) {
+            slot.releaseIntent(transaction);
+        }
+        transaction.getWriteIntents().clear();
+    }
+
+    @Override
+    public boolean isTransactionActive() {
+        return transactions.containsKey(Thread.currentThread());
+    }
+
+    @Override
+    public boolean isTransactionAborted() {
+        Transaction t = transactions.get(Thread.currentThread());
+        if (t == null)
+            return false;
+        return t.getState() == TransactionState.ABORTED;
+    }
+
+    // Nobody waits here, so a detached transaction only has to be kept apart from the threads.
+    @Override
+    public TransactionHandle begin() {
+        OptimisticTransaction transaction = new OptimisticTransaction(timeProvider.getTime(), Thread.currentThread(),
+                Transaction.nextDetachedId(), IsolationLevel.SERIALIZABLE);
+        return new Handle(transaction);
+    }
+
+    private class Handle implements TransactionHandle {
+        private OptimisticTransaction transaction; // Null once committed or rolled back.
+
+        Handle(OptimisticTransaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void operateOnResource(ResourceId rid, ResourceOperation operation) throws
+                NoActiveTransactionException, UnknownResourceIdException, ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+            OptimisticManager.this.operateOnResource(transaction, rid, operation);
+        }
+
+        @Override
+        public void commit() throws NoActiveTransactionException, ActiveTransactionAborted {
+            OptimisticManager.this.commit(transaction);
+            transaction = null;
+        }
+
+        @Override
+        public void rollback() {
+            if (transaction == null)
+                return;
+            OptimisticManager.this.rollback(transaction);
+            transaction = null;
+        }
+
+        @Override
+        public boolean isActive() {
+            return transaction != null;
+        }
+
+        @Override
+        public boolean isAborted() {
+            return transaction != null && transaction.getState() == TransactionState.ABORTED;
+        }
+    }
+
+    public void print() {
+        if (debug) System.out.println(transactions.size() + " transactions");
+    }
+}
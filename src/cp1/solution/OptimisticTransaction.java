@@ -0,0 +1,43 @@
+package cp1.solution;
+
+import cp1.base.IsolationLevel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Transaction of OptimisticManager: versions of resources it has read
+// and resources it holds write intents for.
+class OptimisticTransaction extends Transaction {
+    private final Map<VersionSlot, Long> readVersions;
+    private final List<VersionSlot> writeIntents;
+
+    OptimisticTransaction(long startTime, Thread thread, IsolationLevel isolation) {
+        this(startTime, thread, thread.getId(), isolation);
+    }
+
+    OptimisticTransaction(long startTime, Thread thread, long id, IsolationLevel isolation) {
+        super(startTime, thread, id, isolation);
+        readVersions = new HashMap<>();
+        writeIntents = new ArrayList<>();
+    }
+
+    // Returns false if the resource has been read before in another version.
+    boolean recordRead(VersionSlot slot, long version) {
+        Long previous = readVersions.putIfAbsent(slot, version);
+        return previous == null || previous == version;
+    }
+
+    Long getReadVersion(VersionSlot slot) {
+        return readVersions.get(slot);
+    }
+
+    Map<VersionSlot, Long> getReadVersions() {
+        return readVersions;
+    }
+
+    List<VersionSlot> getWriteIntents() {
+        return writeIntents;
+    }
+}
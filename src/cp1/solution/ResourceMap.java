@@ -0,0 +1,89 @@
+package cp1.solution;
+
+import cp1.base.ResourceId;
+
+// Map from resource ids to values, kept by a single transaction. Open addressing over arrays
+// that are only cleared at the end of the transaction, so once they are large enough a reused
+// transaction allocates nothing. Entries are never removed, a null value stands for no value.
+class ResourceMap<V> {
+    private static final int INITIAL_CAPACITY = 16; // Power of two.
+    private static final int MAX_KEPT_CAPACITY = 1 << 12; // Larger arrays are dropped when cleared.
+    private ResourceId[] keys;
+    private Object[] values;
+    private int[] used; // Positions of keys, in order of insertion.
+    private int size;
+
+    ResourceMap() {
+        keys = new ResourceId[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        used = new int[INITIAL_CAPACITY / 2];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(ResourceId rid) {
+        int i = find(rid);
+        return keys[i] == null ? null : (V) values[i];
+    }
+
+    void put(ResourceId rid, V value) {
+        int i = find(rid);
+        if (keys[i] == null) {
+            if (size == used.length) {
+                grow();
+                i = find(rid);
+            }
+            keys[i] = rid;
+            used[size++] = i;
+        }
+        values[i] = value;
+    }
+
+    // Only the used positions are visited, not the whole arrays. Arrays grown by a large
+    // transaction are not kept for the next ones.
+    void clear() {
+        if (keys.length > MAX_KEPT_CAPACITY) {
+            keys = new ResourceId[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+            used = new int[INITIAL_CAPACITY / 2];
+            size = 0;
+            return;
+        }
+        for (int j = 0; j < size; j++) {
+            keys[used[j]] = null;
+            values[used[j]] = null;
+        }
+        size = 0;
+    }
+
+    // Position of the key, or the empty one where it would be put. The arrays are never more than half full.
+    private int find(ResourceId rid) {
+        int mask = keys.length - 1;
+        int i = mix(rid.hashCode()) & mask;
+        while (keys[i] != null && keys[i] != rid && !keys[i].equals(rid))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        ResourceId[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldUsed = used;
+        keys = new ResourceId[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        used = new int[oldUsed.length * 2];
+        int count = size;
+        size = 0;
+        for (int j = 0; j < count; j++) {
+            int i = find(oldKeys[oldUsed[j]]);
+            keys[i] = oldKeys[oldUsed[j]];
+            values[i] = oldValues[oldUsed[j]];
+            used[size++] = i;
+        }
+    }
+
+    // Spreads consecutive hash codes, which are common for ids, over the whole table.
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,154 @@
+package cp1.solution;
+
+import cp1.base.IndexedResourceId;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+// Resources of a manager, each with a slot of its state. If every resource has an IndexedResourceId
+// and the indexes are distinct and dense, both are kept in arrays at that index, so a lookup does not
+// hash the identifier. Otherwise they are kept in maps. Resources never change after construction.
+// Slots of an eager table are created up front. Slots of a lazy one are created when first needed
+// and may be removed, so a slot that is not in use by anyone costs nothing.
+class ResourceTable<S> {
+    private static final int MAX_SPARSENESS = 2; // How many times longer than the number of resources arrays may be.
+    private final Map<ResourceId, Resource> resources; // Null if indexed.
+    private final Map<ResourceId, S> slots;
+    private final Resource[] indexedResources; // Null if not indexed.
+    private final AtomicReferenceArray<S> indexedSlots;
+    private final Function<Resource, S> newSlot; // Null if eager.
+
+    ResourceTable(Collection<Resource> resources, Function<Resource, S> newSlot) {
+        this(resources, newSlot, false);
+    }
+
+    ResourceTable(Collection<Resource> resources, Function<Resource, S> newSlot, boolean lazy) {
+        this.newSlot = lazy ? newSlot : null;
+        indexedResources = index(resources);
+        if (indexedResources != null) {
+            this.resources = null;
+            slots = null;
+            indexedSlots = new AtomicReferenceArray<>(indexedResources.length);
+        } else {
+            this.resources = new HashMap<>();
+            slots = new ConcurrentHashMap<>();
+            indexedSlots = null;
+            for (Resource r : resources) {
+                this.resources.put(r.getId(), r);
+            }
+        }
+        if (!lazy) {
+            for (Resource r : resources) {
+                if (indexedSlots != null)
+                    indexedSlots.set(((IndexedResourceId) r.getId()).getIndex(), newSlot.apply(r));
+                else
+                    slots.put(r.getId(), newSlot.apply(r));
+            }
+        }
+    }
+
+    // Returns resources at their indexes, or null if they cannot be indexed.
+    private static Resource[] index(Collection<Resource> resources) {
+        long length = 0;
+        for (Resource r : resources) {
+            if (!(r.getId() instanceof IndexedResourceId))
+                return null;
+            length = Math.max(length, ((IndexedResourceId) r.getId()).getIndex() + 1L);
+        }
+        if (length > (long) MAX_SPARSENESS * resources.size())
+            return null;
+        Resource[] indexed = new Resource[(int) length];
+        for (Resource r : resources) {
+            int index = ((IndexedResourceId) r.getId()).getIndex();
+            if (index < 0 || indexed[index] != null)
+                return null;
+            indexed[index] = r;
+        }
+        return indexed;
+    }
+
+    boolean isLazy() {
+        return newSlot != null;
+    }
+
+    boolean contains(ResourceId rid) {
+        return getResource(rid) != null;
+    }
+
+    // Returns null if there is no such resource.
+    Resource getResource(ResourceId rid) {
+        if (indexedResources == null)
+            return resources.get(rid);
+        int index = indexOf(rid);
+        return index < 0 ? null : indexedResources[index];
+    }
+
+    // Returns null if there is no such resource, or if a lazy table has no slot for it at the moment.
+    S getSlot(ResourceId rid) {
+        if (indexedSlots == null)
+            return slots.get(rid);
+        int index = indexOf(rid);
+        return index < 0 ? null : indexedSlots.get(index);
+    }
+
+    // Returns null only if there is no such resource.
+    S getOrCreateSlot(ResourceId rid) {
+        if (newSlot == null)
+            return getSlot(rid);
+        if (indexedSlots == null) {
+            Resource r = resources.get(rid);
+            return r == null ? null : slots.computeIfAbsent(rid, id -> newSlot.apply(r));
+        }
+        int index = indexOf(rid);
+        if (index < 0)
+            return null;
+        S created = null;
+        while (true) {
+            S slot = indexedSlots.get(index);
+            if (slot != null)
+                return slot;
+            if (created == null)
+                created = newSlot.apply(indexedResources[index]);
+            if (indexedSlots.compareAndSet(index, null, created))
+                return created;
+        }
+    }
+
+    // Removes the slot of a lazy table, unless it has been replaced already.
+    void removeSlot(ResourceId rid, S slot) {
+        if (indexedSlots == null)
+            slots.remove(rid, slot);
+        else
+            indexedSlots.compareAndSet(indexOf(rid), slot, null);
+    }
+
+    Collection<S> getSlots() {
+        if (indexedSlots == null)
+            return slots.values();
+        List<S> result = new ArrayList<>();
+        for (int i = 0; i < indexedSlots.length(); i++) {
+            if (indexedSlots.get(i) != null)
+                result.add(indexedSlots.get(i));
+        }
+        return result;
+    }
+
+    // An index may belong to a resource of another manager, so the identifier is compared, too.
+    private int indexOf(ResourceId rid) {
+        if (!(rid instanceof IndexedResourceId))
+            return -1;
+        int index = ((IndexedResourceId) rid).getIndex();
+        if (index < 0 || index >= indexedResources.length || indexedResources[index] == null)
+            return -1;
+        ResourceId id = indexedResources[index].getId();
+        return id == rid || id.equals(rid) ? index : -1;
+    }
+}
@@ -0,0 +1,156 @@
+package cp1.solution;
+
+import cp1.base.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Committed versions of VersionedResources, read by snapshot transactions without any locks.
+// Every commit that changes such resources gets the next value of a logical clock and adds
+// a copy of each of them to its chain of versions. A snapshot started at time t reads the
+// newest version not newer than t. Versions older than that needed by the oldest active
+// snapshot are cut off the chains.
+class SnapshotStore {
+    private final ConcurrentMap<ResourceId, VersionChain> chains; // Only for VersionedResources.
+    private volatile long clock; // Time of the last commit, all of its versions are in the chains.
+    private final TreeMap<Long, Integer> activeSnapshots; // Number of snapshots started at given time.
+    private final Set<VersionChain> longChains; // Chains with more than one version.
+    private final ReentrantLock lock; // Guards the clock, active snapshots and changes of chains.
+
+    private static class ResourceVersion {
+        private final long time;
+        private final Resource state;
+        private volatile ResourceVersion older; // Cut off once no snapshot needs it.
+
+        ResourceVersion(long time, Resource state, ResourceVersion older) {
+            this.time = time;
+            this.state = state;
+            this.older = older;
+        }
+    }
+
+    private static class VersionChain {
+        private volatile ResourceVersion newest;
+
+        VersionChain(ResourceVersion newest) {
+            this.newest = newest;
+        }
+    }
+
+    SnapshotStore(Collection<Resource> resources) {
+        chains = new ConcurrentHashMap<>();
+        for (Resource r : resources) {
+            if (r instanceof VersionedResource)
+                chains.put(r.getId(), new VersionChain(new ResourceVersion(0, ((VersionedResource) r).copy(), null)));
+        }
+        activeSnapshots = new TreeMap<>();
+        longChains = new HashSet<>();
+        lock = new ReentrantLock();
+    }
+
+    // Returns the time of the snapshot, it is active until endSnapshot.
+    long beginSnapshot() {
+        lock.lock();
+        try {
+            activeSnapshots.merge(clock, 1, Integer::sum);
+            return clock;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void endSnapshot(long time) {
+        lock.lock();
+        try {
+            if (activeSnapshots.merge(time, -1, Integer::sum) == 0) {
+                activeSnapshots.remove(time);
+                // Versions kept only for the oldest snapshot are not needed any more.
+                if (activeSnapshots.isEmpty() || activeSnapshots.firstKey() > time) {
+                    Iterator<VersionChain> it = longChains.iterator();
+                    while (it.hasNext()) {
+                        if (!cutOldVersions(it.next()))
+                            it.remove();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isVersioned(ResourceId rid) {
+        return chains.containsKey(rid);
+    }
+
+    // Returns the time of the last commit that changed resource, 0 if it is not versioned.
+    long getNewestTime(ResourceId rid) {
+        VersionChain chain = chains.get(rid);
+        return chain == null ? 0 : chain.newest.time;
+    }
+
+    // Executes a read-only operation on the version of resource seen by the snapshot transaction.
+    // Any other operation fails, and so does one on a resource that is not versioned, which is
+    // unknown to snapshots.
+    void operate(Transaction transaction, ResourceId rid, ResourceOperation operation) throws
+            UnknownResourceIdException, ResourceOperationException, InterruptedException {
+        if (!(operation instanceof ReadOnlyResourceOperation))
+            throw new ResourceOperationException(rid, operation);
+        VersionChain chain = chains.get(rid);
+        if (chain == null)
+            throw new UnknownResourceIdException(rid);
+        ResourceVersion version = chain.newest;
+        while (version.time > transaction.getSnapshotTime())
+            version = version.older;
+        operation.execute(version.state);
+        transaction.countOperation();
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+    }
+
+    // Called by a committing transaction while it still holds its resources exclusively,
+    // so the copies are its committed state. A commit that changes no versioned resource allocates nothing.
+    void publish(List<Resource> changed) {
+        List<VersionChain> changedChains = null;
+        List<Resource> copies = null;
+        for (int j = 0; j < changed.size(); j++) {
+            Resource r = changed.get(j);
+            VersionChain chain = chains.get(r.getId());
+            if (chain == null)
+                continue;
+            if (changedChains == null) {
+                changedChains = new ArrayList<>();
+                copies = new ArrayList<>();
+            }
+            changedChains.add(chain);
+            copies.add(((VersionedResource) r).copy());
+        }
+        if (changedChains == null)
+            return;
+        lock.lock();
+        try {
+            long time = clock + 1;
+            for (int i = 0; i < changedChains.size(); i++) {
+                VersionChain chain = changedChains.get(i);
+                chain.newest = new ResourceVersion(time, copies.get(i), chain.newest);
+                if (cutOldVersions(chain))
+                    longChains.add(chain);
+            }
+            // Snapshots see the commit only once all of its versions are in place.
+            clock = time;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns true if the chain still has more than one version.
+    private boolean cutOldVersions(VersionChain chain) {
+        long oldest = activeSnapshots.isEmpty() ? Long.MAX_VALUE : activeSnapshots.firstKey();
+        ResourceVersion version = chain.newest;
+        while (version.time > oldest && version.older != null)
+            version = version.older;
+        version.older = null;
+        return chain.newest.older != null;
+    }
+}
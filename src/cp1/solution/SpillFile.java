@@ -0,0 +1,130 @@
+package cp1.solution;
+
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationCodec;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Part of an undo log moved out of the heap, to a temporary file mapped into memory in chunks.
+// A record holds the index of its resource, the index of its operation's codec, the encoded
+// operation and, last, its length, so that records are read back from the last one. A record
+// never spans two chunks. Resources and codecs themselves stay in the heap, once each.
+class SpillFile {
+    private static final int CHUNK_SIZE = 1 << 26;
+    private static final int HEADER = 8; // Indexes of resource and codec.
+    private static final int TRAILER = 4; // Length of the encoded operation.
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> chunks; // Position of each is the end of its records.
+    private final List<Resource> resources;
+    private final Map<Resource, Integer> resourceIndexes;
+    private final List<ResourceOperationCodec> codecs;
+    private final Map<ResourceOperationCodec, Integer> codecIndexes;
+    private long size; // Number of records.
+
+    // The file is deleted once closed, or at once where the system allows it.
+    SpillFile() throws IOException {
+        Path path = Files.createTempFile("cp1-undo", ".log");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        chunks = new ArrayList<>();
+        resources = new ArrayList<>();
+        resourceIndexes = new IdentityHashMap<>();
+        codecs = new ArrayList<>();
+        codecIndexes = new IdentityHashMap<>();
+    }
+
+    static boolean canWrite(ResourceOperation operation) {
+        ResourceOperationCodec codec = operation.getCodec();
+        return codec != null && codec.maxEncodedSize() <= CHUNK_SIZE - HEADER - TRAILER;
+    }
+
+    long size() {
+        return size;
+    }
+
+    // The operation has to be one that canWrite. Nothing is written if mapping the file fails.
+    void write(Resource resource, ResourceOperation operation) throws IOException {
+        ResourceOperationCodec codec = operation.getCodec();
+        MappedByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < HEADER + codec.maxEncodedSize() + TRAILER) {
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * CHUNK_SIZE, CHUNK_SIZE);
+            chunks.add(chunk);
+        }
+        int start = chunk.position();
+        chunk.putInt(indexOf(resource, resources, resourceIndexes));
+        chunk.putInt(indexOf(codec, codecs, codecIndexes));
+        codec.encode(operation, chunk);
+        chunk.putInt(chunk.position() - start - HEADER);
+        size++;
+    }
+
+    private static <T> int indexOf(T element, List<T> elements, Map<T, Integer> indexes) {
+        Integer index = indexes.get(element);
+        if (index == null) {
+            index = elements.size();
+            elements.add(element);
+            indexes.put(element, index);
+        }
+        return index;
+    }
+
+    // Removes at most max last records, they are put into the arrays from position n - 1
+    // down to 0, so in the order they have been written. Returns the number n of records read.
+    int readLast(Resource[] resources, ResourceOperation[] operations, int max) {
+        int n = (int) Math.min(max, size);
+        for (int i = n - 1; i >= 0; i--) {
+            MappedByteBuffer chunk = lastChunk();
+            int end = chunk.position();
+            int start = end - TRAILER - chunk.getInt(end - TRAILER) - HEADER;
+            resources[i] = this.resources.get(chunk.getInt(start));
+            ResourceOperationCodec codec = codecs.get(chunk.getInt(start + 4));
+            chunk.limit(end - TRAILER);
+            chunk.position(start + HEADER);
+            operations[i] = codec.decode(chunk);
+            chunk.limit(chunk.capacity());
+            chunk.position(start);
+        }
+        size -= n;
+        return n;
+    }
+
+    // Removes n last records without reading them.
+    void removeLast(int n) {
+        for (int i = 0; i < n; i++) {
+            MappedByteBuffer chunk = lastChunk();
+            int end = chunk.position();
+            chunk.position(end - TRAILER - chunk.getInt(end - TRAILER) - HEADER);
+        }
+        size -= n;
+    }
+
+    // Chunks whose records have all been removed are dropped.
+    private MappedByteBuffer lastChunk() {
+        MappedByteBuffer chunk = chunks.get(chunks.size() - 1);
+        while (chunk.position() == 0) {
+            chunks.remove(chunks.size() - 1);
+            chunk = chunks.get(chunks.size() - 1);
+        }
+        return chunk;
+    }
+
+    // Mapped chunks cannot be unmapped explicitly, they are released once collected.
+    void close() {
+        chunks.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // The file is deleted anyway, at the latest when the virtual machine exits.
+        }
+    }
+}
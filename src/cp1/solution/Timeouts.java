@@ -0,0 +1,29 @@
+package cp1.solution;
+
+import java.time.Duration;
+
+// Conversions of timeouts that saturate: a negative timeout is none, one too long to count
+// in the unit is the longest finite one. Long.MAX_VALUE is left for waiting forever.
+class Timeouts {
+    static final long FOREVER = Long.MAX_VALUE;
+
+    static long toNanos(Duration timeout) {
+        if (timeout.isNegative())
+            return 0;
+        try {
+            return Math.min(timeout.toNanos(), FOREVER - 1);
+        } catch (ArithmeticException e) {
+            return FOREVER - 1;
+        }
+    }
+
+    static long toMillis(Duration timeout) {
+        if (timeout.isNegative())
+            return 0;
+        try {
+            return Math.min(timeout.toMillis(), FOREVER - 1);
+        } catch (ArithmeticException e) {
+            return FOREVER - 1;
+        }
+    }
+}
@@ -1,50 +1,363 @@
 package cp1.solution;
 
+import cp1.base.CommutativeResourceOperation;
+import cp1.base.IsolationLevel;
 import cp1.base.Resource;
 import cp1.base.ResourceId;
 import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationPair;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class Transaction {
-    private TransactionState state;
+    // Bits of status. ABORTING is held only while abortedAt is being written.
+    private static final int ABORTED = 1;
+    private static final int FINISHED = 2;
+    private static final int ABORTING = 4;
+    private static final AtomicIntegerFieldUpdater<Transaction> STATUS =
+            AtomicIntegerFieldUpdater.newUpdater(Transaction.class, "status");
+    // Transactions not bound to a thread get negative ids, so they never share one with a thread.
+    private static final AtomicLong DETACHED_IDS = new AtomicLong(0);
+    private static final int MAX_KEPT_SIZE = 1 << 12; // Longer lists are shrunk when cleared.
+
+    private volatile int status; // Changed only by compare-and-set, so that no monitor is needed.
     private long startTime;
-    private Thread thread;
-    private Map<Resource, List<ResourceOperation>> resourcesChangedByTransaction;
+    private final long id; // Breaks ties of start time.
+    private volatile Thread thread; // Thread that executes the transaction, changes between calls of a detached one.
+    private final UndoLog undoLog; // Operations to undo at rollback.
+    private final ResourceMap<Resource> changed; // Resources changed by transaction, by their ids.
+    private final ArrayList<Resource> resourcesChanged; // The same, in order of the first change.
+    private volatile LockSlot waitingFor; // Slot of a resource that transaction is waiting for.
+    private final ArrayList<LockSlot> ownedSlots; // Slots of resources that transaction has access to.
+    private final ResourceMap<LockMode> heldModes; // Modes requested for them, read without the slots' locks.
+    private ResourceId maxAcquired; // Greatest id of a resource that transaction has access to.
+    private volatile boolean ordered; // Has transaction only waited in batches for resources above the ones it holds.
+    private volatile int operationCount; // Number of operations executed, read by transactions choosing a victim.
+    private volatile int lockCount; // Number of owned slots, read by transactions choosing a victim.
+    private long abortedAt; // System.nanoTime() of abort by another transaction, 0 once the abort is noticed.
+    private IsolationLevel isolation;
+    private long snapshotTime; // Logical time of the last commit visible to a SNAPSHOT transaction.
+    private boolean readOnly; // Is transaction a SNAPSHOT one that may only read.
+    private Set<ResourceId> declared; // Resources declared at start, null if any may be used.
+    private List<ResourceOperationPair> deferred; // Operations to execute at commit, null if executed at once.
+    private volatile Runnable onAbort; // Wakes the transaction up if it waits without a parked thread.
+    private volatile boolean visible; // Has another transaction been able to refer to it, it is never reused then.
 
     public Transaction(long startTime, Thread thread) {
+        this(startTime, thread, IsolationLevel.SERIALIZABLE);
+    }
+
+    public Transaction(long startTime, Thread thread, IsolationLevel isolation) {
+        this(startTime, thread, thread.getId(), isolation);
+    }
+
+    Transaction(long startTime, Thread thread, long id, IsolationLevel isolation) {
         this.startTime = startTime;
         this.thread = thread;
-        state = TransactionState.NOT_ABORTED;
-        resourcesChangedByTransaction = new HashMap<>();
+        this.id = id;
+        this.isolation = isolation;
+        undoLog = new UndoLog();
+        changed = new ResourceMap<>();
+        resourcesChanged = new ArrayList<>();
+        ownedSlots = new ArrayList<>();
+        heldModes = new ResourceMap<>();
+        ordered = true;
+    }
+
+    // Transactions of a thread refer to each other only while some of them waits, a finished
+    // transaction that nobody has waited for or alongside may be started again by its thread.
+    boolean isReusable() {
+        return !visible && (status & FINISHED) != 0;
+    }
+
+    // Called under the lock of a slot in which the transaction waits or is waited for.
+    void markVisible() {
+        if (!visible)
+            visible = true;
+    }
+
+    // Makes a reusable transaction a new one, with all that it has kept cleared, but not shrunk.
+    void restart(long startTime, IsolationLevel isolation) {
+        this.startTime = startTime;
+        this.isolation = isolation;
+        clearHistory();
+        maxAcquired = null;
+        ordered = true;
+        operationCount = 0;
+        abortedAt = 0;
+        snapshotTime = 0;
+        readOnly = false;
+        declared = null;
+        deferred = null;
+        status = 0;
     }
 
     public TransactionState getState() {
-        return state;
+        return (status & ABORTED) != 0 ? TransactionState.ABORTED : TransactionState.NOT_ABORTED;
     }
 
     public long getStartTime() {
         return startTime;
     }
 
-    public Set<Resource> getResourcesChanged() {
-        return resourcesChangedByTransaction.keySet();
+    public Thread getThread() {
+        return thread;
+    }
+
+    static long nextDetachedId() {
+        return -DETACHED_IDS.incrementAndGet();
+    }
+
+    // Called by a detached transaction at the start of every call, before it may wait.
+    void setThread(Thread thread) {
+        this.thread = thread;
+    }
+
+    // Set before waiting asynchronously, the state has to be checked afterwards.
+    void setOnAbort(Runnable onAbort) {
+        this.onAbort = onAbort;
+    }
+
+    public IsolationLevel getIsolation() {
+        return isolation;
+    }
+
+    // Called before the transaction is published, for SNAPSHOT transactions only.
+    void setSnapshot(long snapshotTime, boolean readOnly) {
+        this.snapshotTime = snapshotTime;
+        this.readOnly = readOnly;
+    }
+
+    long getSnapshotTime() {
+        return snapshotTime;
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    // Called before the transaction is published.
+    void declare(Set<ResourceId> declared) {
+        this.declared = declared;
+    }
+
+    boolean isPredeclared() {
+        return declared != null;
+    }
+
+    boolean isDeclared(ResourceId rid) {
+        return declared == null || declared.contains(rid);
+    }
+
+    // Called before the transaction is published.
+    void setDeferred() {
+        deferred = new ArrayList<>();
+    }
+
+    boolean isDeferred() {
+        return deferred != null;
+    }
+
+    // Called before the transaction is published.
+    void setBulk(int spillThreshold) {
+        undoLog.spillPast(spillThreshold);
+    }
+
+    void defer(ResourceId rid, ResourceOperation operation) {
+        deferred.add(new ResourceOperationPair(rid, operation));
+    }
+
+    // Returns the recorded operations, they are not returned again.
+    List<ResourceOperationPair> takeDeferred() {
+        List<ResourceOperationPair> operations = deferred;
+        deferred = new ArrayList<>();
+        return operations;
+    }
+
+    // Ties of start time are broken by id, so that every two transactions are ordered.
+    public boolean isYoungerThan(Transaction other) {
+        return startTime > other.startTime
+                || (startTime == other.startTime && id > other.id);
+    }
+
+    LockSlot getWaitingFor() {
+        return waitingFor;
+    }
+
+    void setWaitingFor(LockSlot slot) {
+        waitingFor = slot;
+    }
+
+    boolean hasChanged(Resource resource) {
+        return changed.get(resource.getId()) != null;
+    }
+
+    public List<Resource> getResourcesChanged() {
+        return resourcesChanged;
+    }
+
+    List<LockSlot> getOwnedSlots() {
+        return ownedSlots;
+    }
+
+    // Called whenever access is granted, the slot is added unless it is owned already.
+    void addOwnedSlot(LockSlot slot, LockMode mode) {
+        LockMode held = heldModes.get(slot.getResourceId());
+        heldModes.put(slot.getResourceId(), held == null ? mode : held.join(mode));
+        if (held != null)
+            return;
+        ownedSlots.add(slot);
+        lockCount = ownedSlots.size();
+        if (maxAcquired == null || slot.getResourceId().compareTo(maxAcquired) > 0)
+            maxAcquired = slot.getResourceId();
+    }
+
+    // Used for locks released before the end of transaction, usually the last acquired one.
+    void removeOwnedSlot(LockSlot slot) {
+        heldModes.put(slot.getResourceId(), null);
+        int last = ownedSlots.size() - 1;
+        if (ownedSlots.get(last) == slot)
+            ownedSlots.remove(last);
+        else
+            ownedSlots.remove(slot);
+        lockCount = ownedSlots.size();
+    }
+
+    void clearOwnedSlots() {
+        clear(ownedSlots);
+        heldModes.clear();
+        lockCount = 0;
+    }
+
+    // Called once the transaction is over, so that a large one does not keep its history while its thread is idle.
+    void clearHistory() {
+        undoLog.clear();
+        changed.clear();
+        clear(resourcesChanged);
+    }
+
+    private static void clear(ArrayList<?> list) {
+        boolean large = list.size() > MAX_KEPT_SIZE;
+        list.clear();
+        if (large)
+            list.trimToSize();
+    }
+
+    boolean holds(ResourceId rid, LockMode mode) {
+        LockMode held = heldModes.get(rid);
+        return held != null && held.covers(mode);
+    }
+
+    int getLockCount() {
+        return lockCount;
+    }
+
+    // Only the transaction's own thread counts its operations.
+    void countOperation() {
+        operationCount++;
+    }
+
+    int getOperationCount() {
+        return operationCount;
+    }
+
+    boolean isAboveAcquired(ResourceId rid) {
+        return maxAcquired == null || rid.compareTo(maxAcquired) > 0;
+    }
+
+    // Transactions that wait only for resources above the ones they hold cannot deadlock with each other.
+    boolean isOrdered() {
+        return ordered;
+    }
+
+    void markUnordered() {
+        if (ordered)
+            ordered = false;
     }
 
     public void rollback() {
-        for (Map.Entry<Resource, List<ResourceOperation>> entry : resourcesChangedByTransaction.entrySet()) {
-            for (ResourceOperation op : entry.getValue()) {
-                op.undo(entry.getKey());
+        rollback(null);
+    }
+
+    // Operations are undone from the last one, each undo sees the state its operation left. Those moved
+    // to a file are read back once the ones in the heap are undone.
+    // Other transactions may be changing a resource held in INCREMENT mode at the same time, so commutative
+    // operations that are not atomic are undone under the lock of its slot. Table is null if no resource
+    // is held that way.
+    void rollback(ResourceTable<LockSlot> table) {
+        do {
+            for (int i = undoLog.size() - 1; i >= 0; i--) {
+                Resource resource = undoLog.getResource(i);
+                ResourceOperation op = undoLog.getOperation(i);
+                if (table != null && op instanceof CommutativeResourceOperation && !((CommutativeResourceOperation) op).isAtomic()) {
+                    LockSlot slot = table.getSlot(resource.getId());
+                    slot.lock();
+                    try {
+                        op.undo(resource);
+                    } finally {
+                        slot.unlock();
+                    }
+                } else {
+                    op.undo(resource);
+                }
             }
-        }
+        } while (undoLog.reload());
     }
 
     public void updateOperationHistory(Resource resource, ResourceOperation operation) {
-        resourcesChangedByTransaction.putIfAbsent(resource, new LinkedList<>());
-        resourcesChangedByTransaction.get(resource).add(operation);
+        undoLog.append(resource, operation);
+        if (changed.get(resource.getId()) == null) {
+            changed.put(resource.getId(), resource);
+            resourcesChanged.add(resource);
+        }
+    }
+
+    // Returns true if the transaction has been aborted by this call.
+    public boolean cancel() {
+        return STATUS.compareAndSet(this, 0, ABORTED);
+    }
+
+    // Aborts the transaction on behalf of another one and wakes its thread up if it waits.
+    // The thread is not interrupted, so its own interruptible calls are not disturbed.
+    // Returns true if the transaction has been aborted by this call.
+    public boolean abort() {
+        if (!STATUS.compareAndSet(this, 0, ABORTING))
+            return false;
+        // Written before the volatile status, so it is seen by whoever sees the abort.
+        abortedAt = System.nanoTime();
+        status = ABORTED;
+        LockSupport.unpark(thread);
+        Runnable wakeUp = onAbort;
+        if (wakeUp != null)
+            wakeUp.run();
+        return true;
+    }
+
+    // Returns false if the transaction has been aborted before. Another transaction may still
+    // hold a reference to this one, a committed transaction must not be aborted afterwards.
+    public boolean finish() {
+        while (true) {
+            int s = status;
+            if (s == ABORTING)
+                Thread.onSpinWait();
+            else if (STATUS.compareAndSet(this, s, s | FINISHED))
+                return (s & ABORTED) == 0;
+        }
+    }
+
+    // Called by the transaction's own thread once it notices the abort. Returns the time
+    // of abort by another transaction, or 0 if it has been noticed before or was not such.
+    long observeAbort() {
+        long time = abortedAt;
+        abortedAt = 0;
+        return time;
     }
 
-    public void cancel() {
-        state = TransactionState.ABORTED;
+    @Override
+    public String toString() {
+        return "T" + id;
     }
 }
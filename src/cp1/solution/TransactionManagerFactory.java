@@ -7,6 +7,7 @@
  */
 package cp1.solution;
 
+import java.time.Duration;
 import java.util.Collection;
 
 import cp1.base.TransactionManager;
@@ -37,5 +38,61 @@ public final class TransactionManagerFactory {
 	) {
 		return new MyManager(resources, timeProvider);
 	}
+
+	/**
+	 * Instantiates your solution in which deadlocks
+	 * are looked for periodically by a background
+	 * thread instead of by every transaction that
+	 * starts waiting for a resource.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param detectionInterval How often to look
+	 *     for deadlocks.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			Duration detectionInterval
+	) {
+		return new MyManager(resources, timeProvider, detectionInterval);
+	}
+
+	/**
+	 * Instantiates your solution in which
+	 * a given policy decides what a transaction
+	 * does when it has to wait for a resource.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param deadlockPolicy The policy for handling
+	 *     deadlocks, see {@link DeadlockPolicy}.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			DeadlockPolicy deadlockPolicy
+	) {
+		return new MyManager(resources, timeProvider, deadlockPolicy);
+	}
+
+	/**
+	 * Instantiates the optimistic variant of your
+	 * solution: transactions never wait for each other,
+	 * conflicting ones are aborted instead. Suits
+	 * workloads in which conflicts are rare.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newOptimisticTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider
+	) {
+		return new OptimisticManager(resources, timeProvider);
+	}
 	
 }
@@ -0,0 +1,111 @@
+package cp1.solution;
+
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Operations executed by a transaction, in order of execution, undone from the last one.
+// Kept in arrays that are only cleared at the end of the transaction, so once they are
+// large enough a reused transaction allocates nothing. An entry takes two references,
+// the arrays grow twice when full. The log of a bulk transaction moves its entries to
+// a SpillFile whenever spillThreshold of them are in the heap.
+class UndoLog {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_KEPT_CAPACITY = 1 << 12; // Larger arrays are dropped when cleared.
+    private Resource[] resources;
+    private ResourceOperation[] operations;
+    private int size; // Number of entries in the heap, those in the file are older.
+    private int spillThreshold; // 0 if entries stay in the heap.
+    private SpillFile spilled; // Null until the first entries are moved there.
+
+    UndoLog() {
+        resources = new Resource[INITIAL_CAPACITY];
+        operations = new ResourceOperation[INITIAL_CAPACITY];
+    }
+
+    void spillPast(int spillThreshold) {
+        if (spillThreshold <= 0)
+            throw new IllegalArgumentException("Spill threshold must be positive: " + spillThreshold);
+        this.spillThreshold = spillThreshold;
+    }
+
+    void append(Resource resource, ResourceOperation operation) {
+        if (spillThreshold > 0 && size == spillThreshold)
+            spill();
+        if (size == resources.length) {
+            resources = Arrays.copyOf(resources, size * 2);
+            operations = Arrays.copyOf(operations, size * 2);
+        }
+        resources[size] = resource;
+        operations[size] = operation;
+        size++;
+    }
+
+    // Moves all entries in the heap to the file. If some of them cannot be written, or the file
+    // cannot be, they stay in the heap, and so do all entries from now on, as they are newer.
+    private void spill() {
+        int written = 0;
+        try {
+            for (int i = 0; i < size; i++) {
+                if (!SpillFile.canWrite(operations[i])) {
+                    spillThreshold = 0;
+                    return;
+                }
+            }
+            if (spilled == null)
+                spilled = new SpillFile();
+            for (; written < size; written++) {
+                spilled.write(resources[written], operations[written]);
+            }
+        } catch (IOException e) {
+            if (spilled != null)
+                spilled.removeLast(written);
+            spillThreshold = 0;
+            return;
+        }
+        Arrays.fill(resources, 0, size, null);
+        Arrays.fill(operations, 0, size, null);
+        size = 0;
+    }
+
+    // Replaces the entries in the heap, which have been undone, by the last ones in the file.
+    // Returns false if there are none.
+    boolean reload() {
+        if (spilled == null || spilled.size() == 0)
+            return false;
+        size = spilled.readLast(resources, operations, resources.length);
+        return true;
+    }
+
+    // Number of entries in the heap.
+    int size() {
+        return size;
+    }
+
+    Resource getResource(int i) {
+        return resources[i];
+    }
+
+    ResourceOperation getOperation(int i) {
+        return operations[i];
+    }
+
+    // A log grown by a large transaction is not kept for the next ones, neither is its file.
+    void clear() {
+        if (spilled != null) {
+            spilled.close();
+            spilled = null;
+        }
+        spillThreshold = 0;
+        if (resources.length > MAX_KEPT_CAPACITY) {
+            resources = new Resource[INITIAL_CAPACITY];
+            operations = new ResourceOperation[INITIAL_CAPACITY];
+        } else {
+            Arrays.fill(resources, 0, size, null);
+            Arrays.fill(operations, 0, size, null);
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,53 @@
+package cp1.solution;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Version of a single resource for OptimisticManager, used like a seqlock.
+// The version is odd while some transaction holds the write intent and may be
+// changing the resource, it changes whenever the intent is taken or released.
+// The resource itself is read and written with plain accesses, so the fences
+// order them against the version, as in StampedLock.
+class VersionSlot {
+    private final AtomicReference<Transaction> writer; // Transaction holding the write intent, null if none.
+    private volatile long version;
+
+    VersionSlot() {
+        writer = new AtomicReference<>();
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    static boolean isStable(long version) {
+        return (version & 1) == 0;
+    }
+
+    // Returns true if the version is still the one read before the resource was.
+    // The fence keeps those reads of the resource from moving past the check.
+    boolean validate(long version) {
+        VarHandle.acquireFence();
+        return this.version == version;
+    }
+
+    boolean isWriter(Transaction transaction) {
+        return writer.get() == transaction;
+    }
+
+    // Never waits, returns false if another transaction holds the intent.
+    boolean tryTakeIntent(Transaction transaction) {
+        if (!writer.compareAndSet(null, transaction))
+            return false;
+        // Only the writer changes the version. Its changes of the resource become visible
+        // no sooner than the odd version.
+        version++;
+        VarHandle.storeStoreFence();
+        return true;
+    }
+
+    void releaseIntent(Transaction transaction) {
+        version++;
+        writer.compareAndSet(transaction, null);
+    }
+}
@@ -0,0 +1,40 @@
+package cp1.solution;
+
+/**
+ * Decides which transaction of a deadlock cycle is aborted.
+ * Ties are broken in favour of aborting the youngest transaction.
+ */
+public enum VictimSelection {
+    /**
+     * The transaction that started last.
+     */
+    YOUNGEST,
+    /**
+     * The transaction that has executed the fewest operations,
+     * so the least work is thrown away.
+     */
+    FEWEST_OPERATIONS,
+    /**
+     * The transaction that holds the fewest resources,
+     * so the fewest resources have to be rolled back.
+     */
+    FEWEST_LOCKS;
+
+    // Returns true if it is cheaper to abort t than other.
+    boolean isCheaperVictim(Transaction t, Transaction other) {
+        int cost;
+        switch (this) {
+            case FEWEST_OPERATIONS:
+                cost = Integer.compare(t.getOperationCount(), other.getOperationCount());
+                break;
+            case FEWEST_LOCKS:
+                cost = Integer.compare(t.getLockCount(), other.getLockCount());
+                break;
+            default:
+                cost = 0;
+        }
+        if (cost != 0)
+            return cost < 0;
+        return t.isYoungerThan(other);
+    }
+}
@@ -0,0 +1,16 @@
+package cp1.solution;
+
+// A transaction waits only for younger ones, instead of waiting for an older
+// transaction it aborts itself ("dies"). Every edge of the wait-for graph goes
+// from an older transaction to a younger one, so there are no cycles.
+class WaitDiePolicy implements DeadlockPolicy {
+
+    @Override
+    public boolean beforeWait(MyManager manager, Transaction waiting) {
+        for (Transaction other : manager.getWaitedFor(waiting)) {
+            if (waiting.isYoungerThan(other))
+                return false;
+        }
+        return true;
+    }
+}
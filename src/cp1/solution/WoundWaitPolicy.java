@@ -0,0 +1,16 @@
+package cp1.solution;
+
+// A transaction waits only for older ones, the younger transactions it would
+// wait for are aborted ("wounded"). Every edge of the wait-for graph goes from
+// a younger transaction to an older one, so there are no cycles.
+class WoundWaitPolicy implements DeadlockPolicy {
+
+    @Override
+    public boolean beforeWait(MyManager manager, Transaction waiting) {
+        for (Transaction other : manager.getWaitedFor(waiting)) {
+            if (other.isYoungerThan(waiting))
+                manager.abort(other);
+        }
+        return true;
+    }
+}
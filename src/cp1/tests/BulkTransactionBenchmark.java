@@ -0,0 +1,192 @@
+/* Porównuje transakcję zwykłą i masową, które wykonują OPERATIONS operacji, każdą
+ * innym obiektem, na RESOURCES zasobach: przyrost zajętej sterty po odśmieceniu
+ * na jedną operację, czas operacji i czas wycofania. Historia transakcji masowej
+ * jest przenoszona do pliku co THRESHOLD operacji.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BulkTransactionBenchmark {
+
+    private final static int RESOURCES = 1000;
+    private final static int[] OPERATIONS = {1_000_000, 5_000_000};
+    private final static int THRESHOLD = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        System.out.printf("%6s %10s %14s %14s %18s\n", "mode", "operations", "memory [B/op]", "operate [ns]", "rollback [ns/op]");
+        for (int operations : OPERATIONS) {
+            for (boolean bulk : new boolean[]{false, true}) {
+                // Warm-up.
+                measure(tm, R, operations / 10, bulk);
+                long[] result = measure(tm, R, operations, bulk);
+                System.out.printf("%6s %10d %14.1f %14.1f %18.1f\n", bulk ? "bulk" : "heap", operations,
+                        (double) result[0] / operations, (double) result[1] / operations,
+                        (double) result[2] / operations);
+            }
+        }
+        for (Resource r : R) {
+            if (((ResourceImpl) r).getValue() != 0)
+                throw new AssertionError("Resource " + r.getId() + " not rolled back");
+        }
+    }
+
+    // Returns memory taken by the transaction, time of its operations and time of its rollback.
+    private static long[] measure(TransactionManager tm, List<Resource> R, int operations, boolean bulk) throws Exception {
+        if (bulk)
+            tm.startBulkTransaction(THRESHOLD);
+        else
+            tm.startTransaction();
+        long before = usedMemory();
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            tm.operateOnResourceInCurrentTransaction(R.get(i % R.size()).getId(), new AddOpImpl(i));
+        }
+        long operate = System.nanoTime() - start;
+        long memory = usedMemory() - before;
+        start = System.nanoTime();
+        tm.rollbackCurrentTransaction();
+        return new long[]{memory, operate, System.nanoTime() - start};
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class AddOpImpl extends ResourceOperation {
+        private final static ResourceOperationCodec codec = new ResourceOperationCodec() {
+            @Override
+            public int maxEncodedSize() {
+                return Long.BYTES;
+            }
+
+            @Override
+            public void encode(ResourceOperation operation, ByteBuffer buffer) {
+                buffer.putLong(((AddOpImpl) operation).delta);
+            }
+
+            @Override
+            public ResourceOperation decode(ByteBuffer buffer) {
+                return new AddOpImpl(buffer.getLong());
+            }
+        };
+
+        private final long delta;
+
+        AddOpImpl(long delta) {
+            this.delta = delta;
+        }
+
+        @Override
+        public void execute(Resource r) {
+            ((ResourceImpl) r).add(delta);
+        }
+
+        @Override
+        public void undo(Resource r) {
+            ((ResourceImpl) r).add(-delta);
+        }
+
+        @Override
+        public ResourceOperationCodec getCodec() {
+            return codec;
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+
+        public void add(long delta) {
+            this.value += delta;
+        }
+    }
+}
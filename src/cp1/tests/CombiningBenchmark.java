@@ -0,0 +1,186 @@
+/* Mierzy przepustowość jednego gorącego zasobu, jak w TestAllOneResource: THREADS wątków przez
+ * DURATION_MS wykonuje krótkie transakcje, które tylko zwiększają ten zasób. Porównuje zwykłe
+ * transakcje (startTransaction, operacja, commit) z operateOnResourceInNewTransaction,
+ * w którym transakcje na gorącym zasobie są łączone. Wypisuje liczbę transakcji na sekundę.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CombiningBenchmark {
+
+    private final static int[] THREADS = {1, 4, 20, 40};
+    private final static long DURATION_MS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%8s %15s %15s\n", "threads", "regular/s", "combined/s");
+        // Warm-up.
+        run(false, THREADS[THREADS.length - 1]);
+        run(true, THREADS[THREADS.length - 1]);
+        for (int threads : THREADS) {
+            long regular = run(false, threads);
+            long combined = run(true, threads);
+            System.out.printf("%8d %15d %15d\n", threads, regular * 1000 / DURATION_MS, combined * 1000 / DURATION_MS);
+        }
+    }
+
+    // Returns the number of commits.
+    private static long run(boolean combine, int threadCount) throws InterruptedException {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Collections.singletonList(r), new LocalTimeProviderImpl());
+        List<ResourceOperation> operations = Collections.singletonList(ResourceOpImpl.get());
+
+        AtomicLong commits = new AtomicLong(0);
+        long end = System.currentTimeMillis() + DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        if (combine) {
+                            tm.operateOnResourceInNewTransaction(r.getId(), operations);
+                        } else {
+                            tm.startTransaction();
+                            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                            tm.commitCurrentTransaction();
+                        }
+                        commits.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (r.getValue() != commits.get()) {
+            throw new AssertionError("The resource is " + r.getValue() + ", but " + commits.get() + " transactions committed");
+        }
+        return commits.get();
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/* Mierzy czas commitCurrentTransaction w zależności od rozmiaru globalnej tablicy blokad.
+ * Wątek pomocniczy trzyma HELD zasobów w jednej otwartej transakcji, a wątek główny
+ * w każdej z ROUNDS iteracji operuje na OWN wolnych zasobach i zatwierdza transakcję.
+ * Koszt commitu powinien zależeć tylko od OWN, a nie od HELD.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+public class CommitLatencyBenchmark {
+
+    private final static int[] HELD = {0, 1_000, 10_000, 100_000, 300_000};
+    private final static int OWN = 10;
+    private final static int WARMUP = 20_000;
+    private final static int ROUNDS = 50_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%10s %15s %15s\n", "held", "mean commit ns", "p50 commit ns");
+        for (int held : HELD) {
+            long[] times = run(held);
+            Arrays.sort(times);
+            long sum = 0;
+            for (long t : times) {
+                sum += t;
+            }
+            System.out.printf("%10d %15d %15d\n", held, sum / times.length, times[times.length / 2]);
+        }
+    }
+
+    private static long[] run(int held) throws InterruptedException {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < held + OWN; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                for (int i = 0; i < held; i++) {
+                    tm.operateOnResourceInCurrentTransaction(R.get(i).getId(), ResourceOpImpl.get());
+                }
+                locked.countDown();
+                done.await();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        holder.start();
+        locked.await();
+
+        long[] times = new long[ROUNDS];
+        for (int i = 0; i < WARMUP + ROUNDS; i++) {
+            try {
+                tm.startTransaction();
+                for (int j = held; j < held + OWN; j++) {
+                    tm.operateOnResourceInCurrentTransaction(R.get(j).getId(), ResourceOpImpl.get());
+                }
+                long start = System.nanoTime();
+                tm.commitCurrentTransaction();
+                long end = System.nanoTime();
+                if (i >= WARMUP) {
+                    times[i - WARMUP] = end - start;
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }
+
+        done.countDown();
+        holder.join();
+        return times;
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the cp1.base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+        @Override
+        public int compareTo(ResourceId other) {
+            if (! (other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl)other;
+            return Integer.compare(this.value, second.value);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (! (obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl)obj;
+            return this.value == second.value;
+        }
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+        public static ResourceOperation get() {
+            return singleton;
+        }
+        private ResourceOpImpl() {
+        }
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+        @Override
+        public void execute(Resource r) {
+            if (! (r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl)r).incValue();
+        }
+        @Override
+        public void undo(Resource r) {
+            if (! (r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl)r).decValue();
+        }
+    }
+}
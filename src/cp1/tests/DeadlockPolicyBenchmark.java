@@ -0,0 +1,198 @@
+/* Porównuje strategie obsługi zakleszczeń: wykrywanie cykli przy każdym czekaniu
+ * na zasób, wykrywanie przez wątek w tle, wound-wait, wait-die i no-wait. THREADS wątków przez DURATION_MS
+ * wykonuje transakcje na 2 lub 3 losowych zasobach w losowej kolejności, raz przy
+ * dużej (mało zasobów, częste zakleszczenia), raz przy małej rywalizacji.
+ * Wypisuje liczbę zatwierdzonych i przerwanych transakcji na sekundę oraz średni
+ * i maksymalny czas od przerwania transakcji przez inną do zauważenia tego przez ofiarę.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.AbortStatistics;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.MyManager;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+public class DeadlockPolicyBenchmark {
+
+    private final static int THREADS = 16;
+    private final static int[] RESOURCES = {32, 4096};
+    private final static long DURATION_MS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, Supplier<DeadlockPolicy>> policies = new LinkedHashMap<>();
+        policies.put("detection", DeadlockPolicy::detection);
+        policies.put("bg 10ms", () -> DeadlockPolicy.detection(Duration.ofMillis(10)));
+        policies.put("wound-wait", DeadlockPolicy::woundWait);
+        policies.put("wait-die", DeadlockPolicy::waitDie);
+        policies.put("no-wait", DeadlockPolicy::noWait);
+
+        System.out.printf("%10s %12s %15s %15s %18s %18s\n", "resources", "policy", "commits/s", "aborts/s",
+                "avg abort delay us", "max abort delay us");
+        // Warm-up.
+        run(RESOURCES[0], DeadlockPolicy.detection());
+        for (int resources : RESOURCES) {
+            for (Map.Entry<String, Supplier<DeadlockPolicy>> policy : policies.entrySet()) {
+                print(resources, policy.getKey(), run(resources, policy.getValue().get()));
+            }
+        }
+    }
+
+    private static void print(int resources, String name, long[] result) {
+        System.out.printf("%10d %12s %15d %15d %18.1f %18.1f\n", resources, name,
+                result[0] * 1000 / DURATION_MS, result[1] * 1000 / DURATION_MS,
+                result[2] / 1000.0, result[3] / 1000.0);
+    }
+
+    // Returns the number of commits, the number of aborts, and the average
+    // and maximal delay in noticing an abort by another transaction.
+    private static long[] run(int resources, DeadlockPolicy policy) throws InterruptedException {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < resources; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl(), policy);
+
+        AtomicLong commits = new AtomicLong(0);
+        AtomicLong aborts = new AtomicLong(0);
+        long end = System.currentTimeMillis() + DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    int n = 2 + random.nextInt(2);
+                    try {
+                        tm.startTransaction();
+                        for (int j = 0; j < n; j++) {
+                            ResourceId rid = R.get(random.nextInt(resources)).getId();
+                            tm.operateOnResourceInCurrentTransaction(rid, ResourceOpImpl.get());
+                        }
+                        tm.commitCurrentTransaction();
+                        commits.incrementAndGet();
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        AbortStatistics statistics = ((MyManager) tm).getAbortStatistics();
+        return new long[]{commits.get(), aborts.get(), statistics.getAverageNanos(), statistics.getMaxNanos()};
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+        @Override
+        public int compareTo(ResourceId other) {
+            if (! (other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl)other;
+            return Integer.compare(this.value, second.value);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (! (obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl)obj;
+            return this.value == second.value;
+        }
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+        public static ResourceOperation get() {
+            return singleton;
+        }
+        private ResourceOpImpl() {
+        }
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+        @Override
+        public void execute(Resource r) {
+            if (! (r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl)r).incValue();
+        }
+        @Override
+        public void undo(Resource r) {
+            if (! (r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl)r).decValue();
+        }
+    }
+}
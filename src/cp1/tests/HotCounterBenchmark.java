@@ -0,0 +1,265 @@
+/* Porównuje zwiększanie gorącego licznika operacją zwykłą (blokada wyłączna), operacją
+ * przemienną (blokada INCREMENT) i przemienną operacją atomową, wykonywaną poza blokadą
+ * stanu zasobu. Każda transakcja zwiększa licznik, a potem zmienia COLD_OPERATIONS
+ * losowych spośród COLD pozostałych zasobów. Dla rosnącej liczby wątków wypisuje liczbę
+ * zatwierdzonych transakcji na sekundę.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class HotCounterBenchmark {
+
+    private final static int[] THREADS = {1, 2, 4, 8, 16};
+    private final static int COLD = 1024;
+    private final static int COLD_OPERATIONS = 3;
+    private final static long DURATION_MS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        ResourceOperation exclusive = ResourceOpImpl.get();
+        ResourceOperation commutative = AddOpImpl.get(false);
+        ResourceOperation atomic = AddOpImpl.get(true);
+        System.out.printf("%8s %18s %18s %18s\n", "threads", "exclusive/s", "commutative/s", "atomic/s");
+        // Warm-up.
+        run(exclusive, THREADS[THREADS.length - 1]);
+        run(commutative, THREADS[THREADS.length - 1]);
+        run(atomic, THREADS[THREADS.length - 1]);
+        for (int threads : THREADS) {
+            long exclusiveCommits = run(exclusive, threads);
+            long commutativeCommits = run(commutative, threads);
+            long atomicCommits = run(atomic, threads);
+            System.out.printf("%8d %18d %18d %18d\n", threads, exclusiveCommits * 1000 / DURATION_MS,
+                    commutativeCommits * 1000 / DURATION_MS, atomicCommits * 1000 / DURATION_MS);
+        }
+    }
+
+    // Returns the number of commits.
+    private static long run(ResourceOperation increment, int threadCount) throws InterruptedException {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < 1 + COLD; i++) {
+            ResourceImpl ri = new ResourceImpl(ResourceIdImpl.generate());
+            RI.add(ri);
+            R.add(ri);
+        }
+        ResourceId hot = R.get(0).getId();
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+
+        AtomicLong commits = new AtomicLong(0);
+        long end = System.currentTimeMillis() + DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        tm.startTransaction();
+                        tm.operateOnResourceInCurrentTransaction(hot, increment);
+                        for (int j = 0; j < COLD_OPERATIONS; j++) {
+                            tm.operateOnResourceInCurrentTransaction(R.get(1 + random.nextInt(COLD)).getId(), ResourceOpImpl.get());
+                        }
+                        tm.commitCurrentTransaction();
+                        commits.incrementAndGet();
+                    } catch (ActiveTransactionAborted e) {
+                        // Deadlocks between cold resources.
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (RI.get(0).getValue() != commits.get()) {
+            throw new AssertionError("The counter is " + RI.get(0).getValue() + ", but " + commits.get() + " transactions committed");
+        }
+        return commits.get();
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private static final AtomicLongFieldUpdater<ResourceImpl> VALUE =
+                AtomicLongFieldUpdater.newUpdater(ResourceImpl.class, "value");
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public void incValueAtomically() {
+            VALUE.incrementAndGet(this);
+        }
+
+        public void decValueAtomically() {
+            VALUE.decrementAndGet(this);
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class AddOpImpl extends CommutativeResourceOperation {
+        private final static AddOpImpl singleton = new AddOpImpl(false);
+        private final static AddOpImpl atomicSingleton = new AddOpImpl(true);
+
+        public static ResourceOperation get(boolean atomic) {
+            return atomic ? atomicSingleton : singleton;
+        }
+
+        private final boolean atomic;
+
+        private AddOpImpl(boolean atomic) {
+            this.atomic = atomic;
+        }
+
+        @Override
+        public boolean isAtomic() {
+            return atomic;
+        }
+
+        @Override
+        public String toString() {
+            return "ADD_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            if (atomic) {
+                ((ResourceImpl) r).incValueAtomically();
+            } else {
+                ((ResourceImpl) r).incValue();
+            }
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            if (atomic) {
+                ((ResourceImpl) r).decValueAtomically();
+            } else {
+                ((ResourceImpl) r).decValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/* Porównuje poziomy izolacji na obciążeniu podobnym do StressTest: THREADS wątków przez
+ * DURATION_MS wykonuje transakcje, które od losowego zasobu przechodzą kolejno po WALK
+ * spośród RESOURCES zasobów, zmieniając co WRITE_EVERY-ty z nich, a pozostałe tylko czytając.
+ * Dla każdego zarządcy i poziomu izolacji wypisuje liczbę zatwierdzonych i przerwanych
+ * transakcji na sekundę.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+public class IsolationLevelBenchmark {
+
+    private final static int THREADS = 20;
+    private final static int RESOURCES = 100;
+    private final static int WALK = 10;
+    private final static int WRITE_EVERY = 4;
+    private final static long DURATION_MS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager>> managers = new LinkedHashMap<>();
+        managers.put("locking", TransactionManagerFactory::newTM);
+        managers.put("optimistic", TransactionManagerFactory::newOptimisticTM);
+
+        System.out.printf("%12s %16s %15s %15s\n", "manager", "isolation", "commits/s", "aborts/s");
+        // Warm-up.
+        for (BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager> manager : managers.values()) {
+            run(manager, IsolationLevel.SERIALIZABLE);
+        }
+        for (Map.Entry<String, BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager>> manager
+                : managers.entrySet()) {
+            for (IsolationLevel isolation : IsolationLevel.values()) {
+                long[] result = run(manager.getValue(), isolation);
+                System.out.printf("%12s %16s %15d %15d\n", manager.getKey(), isolation,
+                        result[0] * 1000 / DURATION_MS, result[1] * 1000 / DURATION_MS);
+            }
+        }
+    }
+
+    // Returns the number of commits and the number of aborts.
+    private static long[] run(BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager> newTM,
+                              IsolationLevel isolation) throws InterruptedException {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = newTM.apply(R, new LocalTimeProviderImpl());
+
+        AtomicLong commits = new AtomicLong(0);
+        AtomicLong aborts = new AtomicLong(0);
+        long end = System.currentTimeMillis() + DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        tm.startTransaction(isolation);
+                        int offset = random.nextInt(RESOURCES);
+                        for (int j = 0; j < WALK; j++) {
+                            ResourceOperation operation = random.nextInt(WRITE_EVERY) == 0 ? ResourceOpImpl.get() : ReadOpImpl.get();
+                            tm.operateOnResourceInCurrentTransaction(R.get((offset + j) % RESOURCES).getId(), operation);
+                        }
+                        tm.commitCurrentTransaction();
+                        commits.incrementAndGet();
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return new long[]{commits.get(), aborts.get()};
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource implements VersionedResource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        private ResourceImpl(ResourceId id, long value) {
+            super(id);
+            this.value = value;
+        }
+
+        @Override
+        public Resource copy() {
+            return new ResourceImpl(getId(), value);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private final static ReadOpImpl singleton = new ReadOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ReadOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).getValue();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/* Mierzy zarządcę RESOURCES zasobów, z których w użyciu jest naraz tylko mała część:
+ * czas utworzenia zarządcy, pamięć przez niego zajętą i średni czas transakcji, która
+ * zmienia OPERATIONS losowych zasobów (THREADS wątków). Stan blokad zasobów jest wtedy
+ * tworzony dopiero przy pierwszym użyciu. Mierzy dla zwykłych identyfikatorów
+ * i dla IndexedResourceId.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+public class LargeResourceSetBenchmark {
+
+    private final static int RESOURCES = 10_000_000;
+    private final static int THREADS = 4;
+    private final static int TRANSACTIONS = 500_000;
+    private final static int OPERATIONS = 4;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%10s %14s %14s %14s\n", "ids", "startup [ms]", "memory [MB]", "tx [ns]");
+        run("hashed", ResourceIdImpl::new);
+        run("indexed", IndexedResourceIdImpl::new);
+    }
+
+    private static void run(String name, IntFunction<ResourceId> newId) throws InterruptedException {
+        List<Resource> R = new ArrayList<>(RESOURCES);
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(newId.apply(i)));
+        }
+        long before = usedMemory();
+        long start = System.nanoTime();
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        long startup = System.nanoTime() - start;
+        long memory = usedMemory() - before;
+        // Warm-up.
+        measure(tm, R);
+        System.out.printf("%10s %14d %14d %14d\n", name, startup / 1_000_000, memory / (1 << 20), measure(tm, R));
+    }
+
+    // Returns the average time of a transaction.
+    private static long measure(TransactionManager tm, List<Resource> R) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int t = 0; t < TRANSACTIONS / THREADS; t++) {
+                    try {
+                        tm.startTransaction();
+                        // Ascending, so that transactions never deadlock.
+                        int index = random.nextInt(RESOURCES - OPERATIONS * 1000);
+                        for (int j = 0; j < OPERATIONS; j++) {
+                            index += 1 + random.nextInt(1000);
+                            tm.operateOnResourceInCurrentTransaction(R.get(index).getId(), ResourceOpImpl.get());
+                        }
+                        tm.commitCurrentTransaction();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return (System.nanoTime() - start) / TRANSACTIONS;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static class ResourceIdImpl implements ResourceId {
+        protected final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class IndexedResourceIdImpl extends ResourceIdImpl implements IndexedResourceId {
+        private IndexedResourceIdImpl(int value) {
+            super(value);
+        }
+
+        @Override
+        public int getIndex() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
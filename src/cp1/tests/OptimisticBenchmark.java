@@ -0,0 +1,229 @@
+/* Porównuje optymistycznego zarządcę transakcji z blokującym MyManager przy różnej
+ * częstości konfliktów. THREADS wątków przez DURATION_MS wykonuje transakcje po OPERATIONS
+ * operacji, z czego co WRITE_EVERY-ta zmienia zasób, a reszta tylko czyta. Zasób wybierany
+ * jest z HOT gorących zasobów z prawdopodobieństwem z HOT_RATES, a w przeciwnym razie
+ * spośród COLD pozostałych. Wypisuje liczbę zatwierdzonych i przerwanych transakcji na sekundę.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+public class OptimisticBenchmark {
+
+    private final static int THREADS = 8;
+    private final static int OPERATIONS = 4;
+    private final static int WRITE_EVERY = 4;
+    private final static int HOT = 4;
+    private final static int COLD = 4096;
+    private final static double[] HOT_RATES = {0.0, 0.01, 0.1, 0.5};
+    private final static long DURATION_MS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager>> managers = new LinkedHashMap<>();
+        managers.put("locking", TransactionManagerFactory::newTM);
+        managers.put("optimistic", TransactionManagerFactory::newOptimisticTM);
+
+        System.out.printf("%10s %12s %15s %15s\n", "hot rate", "manager", "commits/s", "aborts/s");
+        // Warm-up.
+        for (BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager> manager : managers.values()) {
+            run(manager, HOT_RATES[0]);
+        }
+        for (double hotRate : HOT_RATES) {
+            for (Map.Entry<String, BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager>> manager
+                    : managers.entrySet()) {
+                long[] result = run(manager.getValue(), hotRate);
+                System.out.printf("%10.2f %12s %15d %15d\n", hotRate, manager.getKey(),
+                        result[0] * 1000 / DURATION_MS, result[1] * 1000 / DURATION_MS);
+            }
+        }
+    }
+
+    // Returns the number of commits and the number of aborts.
+    private static long[] run(BiFunction<Collection<Resource>, LocalTimeProvider, TransactionManager> newTM,
+                              double hotRate) throws InterruptedException {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < HOT + COLD; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = newTM.apply(R, new LocalTimeProviderImpl());
+
+        AtomicLong commits = new AtomicLong(0);
+        AtomicLong aborts = new AtomicLong(0);
+        long end = System.currentTimeMillis() + DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        tm.startTransaction();
+                        for (int j = 0; j < OPERATIONS; j++) {
+                            int index = random.nextDouble() < hotRate ? random.nextInt(HOT) : HOT + random.nextInt(COLD);
+                            ResourceOperation operation = random.nextInt(WRITE_EVERY) == 0 ? ResourceOpImpl.get() : ReadOpImpl.get();
+                            tm.operateOnResourceInCurrentTransaction(R.get(index).getId(), operation);
+                        }
+                        tm.commitCurrentTransaction();
+                        commits.incrementAndGet();
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return new long[]{commits.get(), aborts.get()};
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private final static ReadOpImpl singleton = new ReadOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ReadOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).getValue();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/* Mierzy czas operacji na zasobie, do którego transakcja ma już dostęp. Każdy wątek zaczyna
+ * transakcję i wykonuje OPERATIONS odczytów wspólnego zasobu (blokada współdzielona), a potem
+ * OPERATIONS zwiększeń własnego zasobu. Obie fazy zaczynają wszystkie wątki naraz. Dla rosnącej
+ * liczby wątków wypisuje czas fazy podzielony przez liczbę jej operacji, bez pierwszych, które
+ * zajmują zasoby.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+public class ReentrantOperationBenchmark {
+
+    private final static int[] THREADS = {1, 2, 4, 8};
+    private final static int OPERATIONS = 1_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%8s %18s %18s\n", "threads", "shared [ns/op]", "exclusive [ns/op]");
+        // Warm-up.
+        run(THREADS[THREADS.length - 1]);
+        for (int threads : THREADS) {
+            List<Long> phases = run(threads);
+            long operations = (long) threads * OPERATIONS;
+            System.out.printf("%8d %18.1f %18.1f\n", threads,
+                    (double) (phases.get(1) - phases.get(0)) / operations,
+                    (double) (phases.get(2) - phases.get(1)) / operations);
+        }
+    }
+
+    // Returns the times at which the phases started and the last one ended.
+    private static List<Long> run(int threadCount) throws InterruptedException {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i <= threadCount; i++) {
+            ResourceImpl ri = new ResourceImpl(ResourceIdImpl.generate());
+            RI.add(ri);
+            R.add(ri);
+        }
+        ResourceId shared = R.get(0).getId();
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+
+        List<Long> phases = new ArrayList<>();
+        CyclicBarrier barrier = new CyclicBarrier(threadCount, () -> phases.add(System.nanoTime()));
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= threadCount; i++) {
+            ResourceId own = R.get(i).getId();
+            threads.add(new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(shared, ReadOpImpl.get());
+                    tm.operateOnResourceInCurrentTransaction(own, ResourceOpImpl.get());
+                    barrier.await();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        tm.operateOnResourceInCurrentTransaction(shared, ReadOpImpl.get());
+                    }
+                    barrier.await();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        tm.operateOnResourceInCurrentTransaction(own, ResourceOpImpl.get());
+                    }
+                    barrier.await();
+                    tm.commitCurrentTransaction();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 1; i <= threadCount; i++) {
+            if (RI.get(i).getValue() != OPERATIONS + 1) {
+                throw new AssertionError("Resource " + i + " is " + RI.get(i).getValue());
+            }
+        }
+        return phases;
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private final static ReadOpImpl singleton = new ReadOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ReadOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).getValue();
+        }
+    }
+}
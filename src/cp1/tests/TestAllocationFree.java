@@ -0,0 +1,298 @@
+/* Sprawdza, że transakcja, która nie czeka na żaden zasób, niczego nie alokuje, gdy wątek
+ * wykonał już wiele takich transakcji: ani przy rozpoczęciu, ani przy operacjach
+ * (także powtórnych na tym samym zasobie i odczytach), ani przy zatwierdzeniu lub wycofaniu.
+ * Alokacje liczy licznik zaalokowanych bajtów wątku z com.sun.management.ThreadMXBean.
+ * Sprawdza też, że po transakcjach, które czekały na siebie nawzajem, wątki wracają
+ * do transakcji bez alokacji, a wartości zasobów się zgadzają.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestAllocationFree {
+
+    private final static int RESOURCES = 16;
+    private final static int OPERATIONS = 4;
+    private final static int WARM_UP = 200_000;
+    private final static int MEASURED = 10_000;
+    private final static int ATTEMPTS = 5; // Compilation may still change the code during the first ones.
+    private final static int THREADS = 4;
+    private final static int CONTENDED = 2_000;
+    private final static com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocated memory of threads is not measured by this JVM, nothing checked");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        committed();
+        rolledBack();
+        afterContention();
+    }
+
+    private interface TransactionBody {
+        void run(TransactionManager tm, List<Resource> R, int i) throws Exception;
+    }
+
+    private static void committed() throws Exception {
+        check("committed", (tm, R, i) -> {
+            runTransaction(tm, R, i);
+            tm.commitCurrentTransaction();
+        });
+    }
+
+    private static void rolledBack() throws Exception {
+        check("rolled back", (tm, R, i) -> {
+            runTransaction(tm, R, i);
+            tm.rollbackCurrentTransaction();
+        });
+    }
+
+    // Transactions that have waited for each other are not reused, but the ones after them are.
+    private static void afterContention() throws Exception {
+        List<Resource> R = newResources();
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        List<Thread> contending = new ArrayList<>();
+        long[] committed = new long[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            int index = i;
+            contending.add(new Thread(() -> {
+                for (int t = 0; t < CONTENDED; t++) {
+                    try {
+                        // In opposite orders, so that some transactions deadlock.
+                        runTransaction(tm, R, index % 2 == 0 ? t : RESOURCES - 1 - t % RESOURCES);
+                        tm.commitCurrentTransaction();
+                        committed[index]++;
+                    } catch (ActiveTransactionAborted e) {
+                        // Chosen as a victim, rolled back below.
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : contending) {
+            t.start();
+        }
+        for (Thread t : contending) {
+            t.join();
+        }
+        long expected = 0;
+        for (long c : committed) {
+            expected += (OPERATIONS + 1) * c;
+        }
+        long sum = 0;
+        for (Resource r : R) {
+            sum += ((ResourceImpl) r).getValue();
+        }
+        expect(sum == expected, "sum of values " + sum + " instead of " + expected);
+        check("after contention", tm, R, (tm2, R2, i) -> {
+            runTransaction(tm2, R2, i);
+            tm2.commitCurrentTransaction();
+        });
+    }
+
+    // Every operation but the last one changes a different resource, the last one changes the first again.
+    // Then each of them is read.
+    private static void runTransaction(TransactionManager tm, List<Resource> R, int i) throws Exception {
+        tm.startTransaction();
+        for (int j = 0; j < OPERATIONS; j++) {
+            tm.operateOnResourceInCurrentTransaction(R.get((i + j) % RESOURCES).getId(), ResourceOpImpl.get());
+        }
+        tm.operateOnResourceInCurrentTransaction(R.get(i % RESOURCES).getId(), ResourceOpImpl.get());
+        for (int j = 0; j < OPERATIONS; j++) {
+            tm.operateOnResourceInCurrentTransaction(R.get((i + j) % RESOURCES).getId(), ReadOpImpl.get());
+        }
+    }
+
+    private static void check(String name, TransactionBody body) throws Exception {
+        List<Resource> R = newResources();
+        check(name, TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl()), R, body);
+    }
+
+    private static void check(String name, TransactionManager tm, List<Resource> R, TransactionBody body) throws Exception {
+        for (int i = 0; i < WARM_UP; i++) {
+            body.run(tm, R, i);
+        }
+        long bytes = 0;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            long overhead = allocatedBytes();
+            long start = allocatedBytes();
+            overhead = start - overhead;
+            for (int i = 0; i < MEASURED; i++) {
+                body.run(tm, R, i);
+            }
+            bytes = allocatedBytes() - start - overhead;
+            if (bytes <= 0) {
+                System.out.println(name + ": no allocation in " + MEASURED + " transactions");
+                return;
+            }
+        }
+        expect(false, name + ": " + bytes + " bytes allocated in " + MEASURED + " transactions");
+    }
+
+    private static long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static List<Resource> newResources() {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        return R;
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private final static ReadOpImpl singleton = new ReadOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ReadOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).getValue();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/* Sprawdza asynchroniczne operacje transakcji niezwiązanych z wątkiem (operateAsync, commitAsync):
+ * - operacja na zajętym zasobie nie blokuje wywołującego wątku, a jej wynik jest gotowy,
+ *   gdy zasób zostanie zwolniony,
+ * - zakleszczenie dwóch czekających asynchronicznie transakcji jest wykrywane, a wynik
+ *   przerwanej kończy się wyjątkiem ActiveTransactionAborted,
+ * - HANDLES transakcji zmieniających ten sam zasób, zaczętych w jednym wątku, kończy się
+ *   bez żadnego czekającego wątku,
+ * - dla OptimisticManager operacje asynchroniczne są wykonywane od razu.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TestAsyncOperations {
+
+    private final static int HANDLES = 1000;
+    private final static long TIMEOUT_S = 10;
+    private final static long NOT_DONE_MS = 100;
+
+    public static void main(String[] args) throws Exception {
+        notBlocking();
+        deadlockVictimFails();
+        manyOnOneThread();
+        optimisticAtOnce();
+        System.out.println("OK");
+    }
+
+    private static void notBlocking() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r), new LocalTimeProviderImpl());
+        TransactionHandle holder = tm.begin();
+        TransactionHandle waiter = tm.begin();
+        holder.operateOnResource(r.getId(), ResourceOpImpl.get());
+        CompletableFuture<Void> operation = waiter.operateAsync(r.getId(), ResourceOpImpl.get());
+        Thread.sleep(NOT_DONE_MS);
+        if (operation.isDone()) {
+            throw new AssertionError("An operation on a held resource has completed");
+        }
+        holder.commitAsync().get(TIMEOUT_S, TimeUnit.SECONDS);
+        operation.get(TIMEOUT_S, TimeUnit.SECONDS);
+        waiter.commitAsync().get(TIMEOUT_S, TimeUnit.SECONDS);
+        expectResourceValue(r, 2);
+    }
+
+    private static void deadlockVictimFails() throws Exception {
+        ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r1, r2), new LocalTimeProviderImpl());
+        TransactionHandle h1 = tm.begin();
+        TransactionHandle h2 = tm.begin();
+        h1.operateOnResource(r1.getId(), ResourceOpImpl.get());
+        h2.operateOnResource(r2.getId(), ResourceOpImpl.get());
+        CompletableFuture<Void> f1 = h1.operateAsync(r2.getId(), ResourceOpImpl.get());
+        CompletableFuture<Void> f2 = h2.operateAsync(r1.getId(), ResourceOpImpl.get());
+
+        CompletableFuture.anyOf(f1, f2).handle((v, e) -> null).get(TIMEOUT_S, TimeUnit.SECONDS);
+        TransactionHandle victim = f1.isCompletedExceptionally() ? h1 : h2;
+        TransactionHandle survivor = victim == h1 ? h2 : h1;
+        CompletableFuture<Void> failed = victim == h1 ? f1 : f2;
+        try {
+            failed.get();
+            throw new AssertionError("Neither transaction has been aborted");
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof ActiveTransactionAborted) || !victim.isAborted()) {
+                throw new AssertionError("The victim should be aborted", e);
+            }
+        }
+        victim.rollback();
+        (survivor == h1 ? f1 : f2).get(TIMEOUT_S, TimeUnit.SECONDS);
+        survivor.commitAsync().get(TIMEOUT_S, TimeUnit.SECONDS);
+        expectResourceValue(r1, 1);
+        expectResourceValue(r2, 1);
+    }
+
+    private static void manyOnOneThread() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r), new LocalTimeProviderImpl());
+        List<CompletableFuture<Void>> commits = new ArrayList<>();
+        for (int i = 0; i < HANDLES; i++) {
+            TransactionHandle handle = tm.begin();
+            commits.add(handle.operateAsync(r.getId(), ResourceOpImpl.get()).thenCompose(v -> handle.commitAsync()));
+        }
+        CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])).get(TIMEOUT_S, TimeUnit.SECONDS);
+        expectResourceValue(r, HANDLES);
+    }
+
+    private static void optimisticAtOnce() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newOptimisticTM(Arrays.asList(r), new LocalTimeProviderImpl());
+        TransactionHandle handle = tm.begin();
+        CompletableFuture<Void> operation = handle.operateAsync(r.getId(), ResourceOpImpl.get());
+        if (!operation.isDone()) {
+            throw new AssertionError("An optimistic operation should be executed at once");
+        }
+        handle.commitAsync().get();
+        expectResourceValue(r, 1);
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
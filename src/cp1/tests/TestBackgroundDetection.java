@@ -0,0 +1,229 @@
+/* Sprawdza wykrywanie zakleszczeń przez wątek w tle:
+ * - dwie transakcje biorące dwa zasoby w przeciwnej kolejności tworzą zakleszczenie,
+ *   które zostaje wykryte, a młodsza z nich zostaje przerwana,
+ * - trzy transakcje czekające na siebie w cyklu,
+ * - odstęp dłuższy, niż da się zapisać w milisekundach, nie psuje tworzenia zarządcy.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestBackgroundDetection {
+
+    private final static long BASE_WAIT_TIME = 100;
+    private final static Duration DETECTION_INTERVAL = Duration.ofMillis(10);
+
+    public static void main(String[] args) {
+        cycle(2);
+        cycle(3);
+        longestInterval();
+        System.out.println("OK");
+    }
+
+    private static void longestInterval() {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                Collections.singletonList(r),
+                new LocalTimeProviderImpl(),
+                Duration.ofSeconds(Long.MAX_VALUE)
+        );
+        try {
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            tm.commitCurrentTransaction();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 1);
+    }
+
+    // Transaction i takes resource i and then resource i + 1, the last one closes the cycle.
+    private static void cycle(int n) {
+        List<ResourceImpl> R = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                Collections.unmodifiableList(new ArrayList<Resource>(R)),
+                new LocalTimeProviderImpl(),
+                DETECTION_INTERVAL
+        );
+        AtomicInteger aborted = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int k = i;
+            threads.add(new Thread(() -> {
+                try {
+                    Thread.sleep(k * BASE_WAIT_TIME);
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(R.get(k).getId(), ResourceOpImpl.get());
+                    Thread.sleep((n - k) * BASE_WAIT_TIME);
+                    tm.operateOnResourceInCurrentTransaction(R.get((k + 1) % n).getId(), ResourceOpImpl.get());
+                    tm.commitCurrentTransaction();
+                    if (k == n - 1) {
+                        throw new AssertionError("The youngest transaction should have been aborted");
+                    }
+                } catch (ActiveTransactionAborted e) {
+                    aborted.incrementAndGet();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            }));
+        }
+        runAll(threads);
+        if (aborted.get() != 1) {
+            throw new AssertionError("Expected one aborted transaction, got " + aborted.get());
+        }
+        expectResourceValue(R.get(n - 1), 1);
+        for (int i = 0; i < n - 1; i++) {
+            expectResourceValue(R.get(i), i == 0 ? 1 : 2);
+        }
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
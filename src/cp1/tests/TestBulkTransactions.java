@@ -0,0 +1,273 @@
+/* Sprawdza transakcje masowe, których historia jest przenoszona do pliku, dla obu zarządców:
+ * - wycofanie cofa wszystkie operacje w odwrotnej kolejności (operacje nie są przemienne,
+ *   więc każda inna kolejność dałaby inne wartości), także gdy historia zajmuje w pliku
+ *   więcej niż jeden odwzorowany fragment,
+ * - zatwierdzenie zostawia wartości wszystkich operacji,
+ * - operacja bez kodeka zatrzymuje resztę historii na stercie, a wycofanie nadal jest poprawne,
+ * - po transakcji masowej wątek wykonuje zwykłe transakcje jak wcześniej.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+public class TestBulkTransactions {
+
+    private final static int RESOURCES = 16;
+    private final static int THRESHOLD = 1000;
+    private final static int OPERATIONS = 200_000;
+    private final static int LARGE = 4_000_000; // More than fits in one mapped chunk of the file.
+
+    public static void main(String[] args) throws Exception {
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            rolledBack(newTM, OPERATIONS);
+            committed(newTM);
+            withoutCodec(newTM);
+        }
+        rolledBack(TransactionManagerFactory::newTM, LARGE);
+        System.out.println("OK");
+    }
+
+    private static void rolledBack(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM,
+                                   int operations) throws Exception {
+        List<Resource> R = newResources();
+        TransactionManager tm = newTM.apply(R, new LocalTimeProviderImpl());
+        tm.startBulkTransaction(THRESHOLD);
+        for (int i = 0; i < operations; i++) {
+            tm.operateOnResourceInCurrentTransaction(R.get(i % RESOURCES).getId(), new AffineOpImpl(i));
+        }
+        tm.rollbackCurrentTransaction();
+        for (Resource r : R) {
+            expect(((ResourceImpl) r).getValue() == 0, r.getId() + " not rolled back after " + operations);
+        }
+        afterwards(tm, R);
+    }
+
+    private static void committed(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM) throws Exception {
+        List<Resource> R = newResources();
+        TransactionManager tm = newTM.apply(R, new LocalTimeProviderImpl());
+        long[] expected = new long[RESOURCES];
+        tm.startBulkTransaction(THRESHOLD);
+        for (int i = 0; i < OPERATIONS; i++) {
+            tm.operateOnResourceInCurrentTransaction(R.get(i % RESOURCES).getId(), new AffineOpImpl(i));
+            expected[i % RESOURCES] = AffineOpImpl.apply(expected[i % RESOURCES], i);
+        }
+        tm.commitCurrentTransaction();
+        for (int i = 0; i < RESOURCES; i++) {
+            expect(((ResourceImpl) R.get(i)).getValue() == expected[i], R.get(i).getId() + " changed by commit");
+        }
+    }
+
+    // Operations before the one without a codec are in the file, those after it in the heap.
+    private static void withoutCodec(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM) throws Exception {
+        List<Resource> R = newResources();
+        TransactionManager tm = newTM.apply(R, new LocalTimeProviderImpl());
+        tm.startBulkTransaction(THRESHOLD);
+        for (int i = 0; i < OPERATIONS; i++) {
+            ResourceOperation operation = i == OPERATIONS / 2 ? ResourceOpImpl.get() : new AffineOpImpl(i);
+            tm.operateOnResourceInCurrentTransaction(R.get(i % RESOURCES).getId(), operation);
+        }
+        tm.rollbackCurrentTransaction();
+        for (Resource r : R) {
+            expect(((ResourceImpl) r).getValue() == 0, r.getId() + " not rolled back with an operation without codec");
+        }
+    }
+
+    private static void afterwards(TransactionManager tm, List<Resource> R) throws Exception {
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(R.get(0).getId(), new AffineOpImpl(1));
+        tm.rollbackCurrentTransaction();
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(R.get(0).getId(), ResourceOpImpl.get());
+        tm.commitCurrentTransaction();
+        expect(((ResourceImpl) R.get(0)).getValue() == 1, "transaction after a bulk one");
+    }
+
+    private static List<Resource> newResources() {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        return R;
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // Sets the value v to 3v + k, modulo 2^64. Undone by multiplying v - k by the inverse of 3.
+    private static final class AffineOpImpl extends ResourceOperation {
+        private final static long INVERSE_OF_3 = 0xAAAAAAAAAAAAAAABL;
+        private final static ResourceOperationCodec codec = new ResourceOperationCodec() {
+            @Override
+            public int maxEncodedSize() {
+                return Long.BYTES;
+            }
+
+            @Override
+            public void encode(ResourceOperation operation, ByteBuffer buffer) {
+                buffer.putLong(((AffineOpImpl) operation).k);
+            }
+
+            @Override
+            public ResourceOperation decode(ByteBuffer buffer) {
+                return new AffineOpImpl(buffer.getLong());
+            }
+        };
+
+        private final long k;
+
+        AffineOpImpl(long k) {
+            this.k = k;
+        }
+
+        static long apply(long v, long k) {
+            return 3 * v + k;
+        }
+
+        @Override
+        public void execute(Resource r) {
+            ResourceImpl resource = (ResourceImpl) r;
+            resource.setValue(apply(resource.getValue(), k));
+        }
+
+        @Override
+        public void undo(Resource r) {
+            ResourceImpl resource = (ResourceImpl) r;
+            resource.setValue((resource.getValue() - k) * INVERSE_OF_3);
+        }
+
+        @Override
+        public ResourceOperationCodec getCodec() {
+            return codec;
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+
+        public void setValue(long value) {
+            this.value = value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/* Sprawdza transakcje na jednym zasobie uruchamiane przez operateOnResourceInNewTransaction:
+ * - przy wielu wątkach zwiększających ten sam zasób (także zwykłymi transakcjami) część transakcji
+ *   wykonuje inny wątek (łączenie transakcji), a wartość zasobu równa się liczbie zatwierdzonych
+ *   zwiększeń,
+ * - transakcja, której operacja się nie powiodła, dostaje ResourceOperationException i jest
+ *   wycofywana w całości, bez wpływu na pozostałe transakcje łączone razem z nią,
+ * - tak samo transakcja, której operacja rzuciła Error, dostaje ten Error,
+ * - wątek z aktywną transakcją dostaje AnotherTransactionActiveException.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class TestCombining {
+
+    private final static int THREADS = 20;
+    private final static int REPS = 200;
+    private final static int FAIL_EVERY = 5;
+    private final static long OPERATION_NANOS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        hotResource();
+        anotherTransactionActive();
+        System.out.println("OK");
+    }
+
+    private static void hotResource() throws InterruptedException {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                Collections.unmodifiableList(Arrays.asList(r)), new LocalTimeProviderImpl());
+        AtomicLong committed = new AtomicLong(0);
+        AtomicLong combined = new AtomicLong(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final boolean regular = i % 4 == 0;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < REPS; j++) {
+                    ResourceOpImpl increment = new ResourceOpImpl(Thread.currentThread(), combined);
+                    try {
+                        if (regular) {
+                            tm.startTransaction();
+                            tm.operateOnResourceInCurrentTransaction(r.getId(), increment);
+                            tm.commitCurrentTransaction();
+                        } else if (j % (2 * FAIL_EVERY) == 0) {
+                            try {
+                                tm.operateOnResourceInNewTransaction(r.getId(), Arrays.asList(increment, new FailingOpImpl()));
+                                throw new AssertionError("A failed transaction has been committed");
+                            } catch (ResourceOperationException e) {
+                                continue;
+                            }
+                        } else if (j % FAIL_EVERY == 0) {
+                            try {
+                                tm.operateOnResourceInNewTransaction(r.getId(), Arrays.asList(increment, new ErrorOpImpl()));
+                                throw new AssertionError("A failed transaction has been committed");
+                            } catch (OperationError e) {
+                                continue;
+                            }
+                        } else {
+                            tm.operateOnResourceInNewTransaction(r.getId(), Arrays.asList(increment, increment));
+                        }
+                        committed.addAndGet(regular ? 1 : 2);
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        expectResourceValue(r, committed.get());
+        if (combined.get() == 0) {
+            throw new AssertionError("No transaction has been applied by another thread");
+        }
+    }
+
+    private static void anotherTransactionActive() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r), new LocalTimeProviderImpl());
+        try {
+            tm.startTransaction();
+            tm.operateOnResourceInNewTransaction(r.getId(), Arrays.asList(new ResourceOpImpl(Thread.currentThread(), null)));
+            throw new AssertionError("Expected AnotherTransactionActiveException");
+        } catch (AnotherTransactionActiveException e) {
+            // Expected.
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 0);
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    // Takes a while, so that other threads queue up for the resource.
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final Thread owner; // Thread of the transaction.
+        private final AtomicLong combined; // Counts executions by other threads.
+
+        public ResourceOpImpl(Thread owner, AtomicLong combined) {
+            this.owner = owner;
+            this.combined = combined;
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            if (Thread.currentThread() != owner) {
+                combined.incrementAndGet();
+            }
+            LockSupport.parkNanos(OPERATION_NANOS);
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class FailingOpImpl extends ResourceOperation {
+        @Override
+        public String toString() {
+            return "FAIL_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) throws ResourceOperationException {
+            throw new ResourceOperationException(r.getId(), this);
+        }
+
+        @Override
+        public void undo(Resource r) {
+            throw new AssertionError("A failed operation has been undone");
+        }
+    }
+
+    private static final class OperationError extends Error {
+        private static final long serialVersionUID = 6120383515622387124L;
+    }
+
+    private static final class ErrorOpImpl extends ResourceOperation {
+        @Override
+        public String toString() {
+            return "ERROR_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            throw new OperationError();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            throw new AssertionError("A failed operation has been undone");
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/* Sprawdza operacje przemienne i liczniki z ograniczeniami (escrow):
+ * - dwie transakcje zwiększające ten sam zasób nie czekają na siebie, a transakcja czytająca
+ *   czeka, aż obie się zakończą; wycofanie jednej z nich cofa tylko jej zmianę,
+ * - zmiana licznika, która mogłaby wyprowadzić go poza ograniczenia przy którymkolwiek
+ *   zakończeniu aktywnych transakcji, kończy się ResourceOperationException,
+ * - także gdy transakcja trzymająca licznik na wyłączność zmieniła go wcześniej
+ *   operacją, która nie jest przemienna,
+ * - przy wielu wątkach zwiększających i zmniejszających licznik, z losowymi wycofaniami,
+ *   licznik nigdy nie wychodzi poza ograniczenia i na koniec równa się sumie zatwierdzonych zmian
+ *   (dla obu zarządców, także dla operacji atomowych, wykonywanych jednocześnie).
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.BiFunction;
+
+public class TestCommutativeOperations {
+
+    private final static Duration SHORT_TIMEOUT = Duration.ofMillis(100);
+    private final static Duration LONG_TIMEOUT = Duration.ofSeconds(1);
+    private final static int THREADS = 8;
+    private final static long RANDOM_DURATION_MS = 500;
+
+    public static void main(String[] args) throws Exception {
+        concurrentIncrements();
+        escrowBounds();
+        escrowAfterExclusiveChange();
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            randomEscrow(newTM, false);
+            randomEscrow(newTM, true);
+        }
+        System.out.println("OK");
+    }
+
+    private static void concurrentIncrements() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r), new LocalTimeProviderImpl());
+        Session first = new Session(tm);
+        Session second = new Session(tm);
+        Session reader = new Session(tm);
+        try {
+            first.run(() -> {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(1));
+                return null;
+            });
+            second.run(() -> {
+                tm.startTransaction();
+                if (!tm.tryOperateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(1), LONG_TIMEOUT)) {
+                    throw new AssertionError("Increments have not been done at the same time");
+                }
+                return null;
+            });
+            reader.run(() -> {
+                tm.startTransaction();
+                if (tm.tryOperateOnResourceInCurrentTransaction(r.getId(), new ReadOpImpl(), SHORT_TIMEOUT)) {
+                    throw new AssertionError("A read has not waited for increments");
+                }
+                return null;
+            });
+            second.run(() -> {
+                tm.rollbackCurrentTransaction();
+                return null;
+            });
+            first.run(() -> {
+                tm.commitCurrentTransaction();
+                return null;
+            });
+            reader.run(() -> {
+                ReadOpImpl op = new ReadOpImpl();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+                if (op.value != 1) {
+                    throw new AssertionError("Expected to read 1, but read " + op.value);
+                }
+                tm.commitCurrentTransaction();
+                return null;
+            });
+        } finally {
+            first.close();
+            second.close();
+            reader.close();
+        }
+        expectResourceValue(r, 1);
+    }
+
+    private static void escrowBounds() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate(), 1, 0, 2);
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r), new LocalTimeProviderImpl());
+        Session first = new Session(tm);
+        Session second = new Session(tm);
+        try {
+            first.run(() -> {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(-1));
+                return null;
+            });
+            second.run(() -> {
+                tm.startTransaction();
+                // The counter is 0 if the first transaction commits.
+                expectOutOfBounds(tm, r, -1);
+                // It is 2 if the first transaction rolls back.
+                tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(1));
+                expectOutOfBounds(tm, r, 1);
+                return null;
+            });
+            first.run(() -> {
+                tm.rollbackCurrentTransaction();
+                return null;
+            });
+            second.run(() -> {
+                tm.commitCurrentTransaction();
+                return null;
+            });
+            expectResourceValue(r, 2);
+            first.run(() -> {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(-2));
+                expectOutOfBounds(tm, r, -1);
+                tm.commitCurrentTransaction();
+                return null;
+            });
+        } finally {
+            first.close();
+            second.close();
+        }
+        expectResourceValue(r, 0);
+    }
+
+    // The bounds have to follow the value set by the transaction itself.
+    private static void escrowAfterExclusiveChange() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate(), 0, 0, 10);
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r), new LocalTimeProviderImpl());
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(r.getId(), new SetOpImpl(10));
+        expectOutOfBounds(tm, r, 5);
+        tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(-10));
+        expectOutOfBounds(tm, r, -1);
+        tm.operateOnResourceInCurrentTransaction(r.getId(), new SetOpImpl(3));
+        tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(7));
+        tm.commitCurrentTransaction();
+        expectResourceValue(r, 10);
+    }
+
+    private static void expectOutOfBounds(TransactionManager tm, ResourceImpl r, long delta) throws Exception {
+        try {
+            tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(delta));
+            throw new AssertionError("Adding " + delta + " might take the counter out of bounds");
+        } catch (ResourceOperationException e) {
+            // Expected.
+        }
+    }
+
+    private static void randomEscrow(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM,
+            boolean atomic) throws InterruptedException {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate(), 0, 0, 5);
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        AtomicLong committed = new AtomicLong(0);
+        long end = System.currentTimeMillis() + RANDOM_DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        tm.startTransaction();
+                        long sum = 0;
+                        for (int j = 0; j < 3; j++) {
+                            long delta = random.nextInt(5) - 2;
+                            try {
+                                tm.operateOnResourceInCurrentTransaction(r.getId(), new AddOpImpl(delta, atomic));
+                                sum += delta;
+                            } catch (ResourceOperationException e) {
+                                // The counter might have gone out of bounds.
+                            }
+                        }
+                        if (random.nextInt(4) != 0) {
+                            tm.commitCurrentTransaction();
+                            committed.addAndGet(sum);
+                        }
+                    } catch (ActiveTransactionAborted e) {
+                        // Optimistic transactions conflict with each other.
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        expectResourceValue(r, committed.get());
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // A thread with an own transaction, that runs given steps one at a time.
+    private static final class Session {
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+        private final TransactionManager tm;
+
+        Session(TransactionManager tm) {
+            this.tm = tm;
+        }
+
+        void run(Callable<Void> step) throws Exception {
+            try {
+                executor.submit(step).get();
+            } catch (ExecutionException e) {
+                throw new AssertionError(e.getCause());
+            }
+        }
+
+        void close() throws Exception {
+            executor.submit(() -> tm.rollbackCurrentTransaction()).get();
+            executor.shutdown();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource implements EscrowResource {
+        private static final AtomicLongFieldUpdater<ResourceImpl> VALUE =
+                AtomicLongFieldUpdater.newUpdater(ResourceImpl.class, "value");
+        private volatile long value;
+        private final long lowerBound;
+        private final long upperBound;
+
+        public ResourceImpl(ResourceId id) {
+            this(id, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+
+        public ResourceImpl(ResourceId id, long value, long lowerBound, long upperBound) {
+            super(id);
+            this.value = value;
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+        }
+
+        // Called by one transaction at a time.
+        public void setValue(long value) {
+            this.value = value;
+        }
+
+        // Called by one transaction at a time.
+        public void addValue(long delta) {
+            long x = this.value + delta;
+            if (x < lowerBound || x > upperBound) {
+                throw new AssertionError("Counter " + getId() + " has gone out of bounds: " + x);
+            }
+            this.value = x;
+        }
+
+        // May be called by many transactions at a time.
+        public void addValueAtomically(long delta) {
+            long x = VALUE.addAndGet(this, delta);
+            if (x < lowerBound || x > upperBound) {
+                throw new AssertionError("Counter " + getId() + " has gone out of bounds: " + x);
+            }
+        }
+
+        @Override
+        public long getValue() {
+            return this.value;
+        }
+
+        @Override
+        public long getLowerBound() {
+            return lowerBound;
+        }
+
+        @Override
+        public long getUpperBound() {
+            return upperBound;
+        }
+    }
+
+    private static final class AddOpImpl extends CommutativeResourceOperation {
+        private final long delta;
+        private final boolean atomic;
+
+        public AddOpImpl(long delta) {
+            this(delta, false);
+        }
+
+        public AddOpImpl(long delta, boolean atomic) {
+            this.delta = delta;
+            this.atomic = atomic;
+        }
+
+        @Override
+        public long getDelta() {
+            return delta;
+        }
+
+        @Override
+        public boolean isAtomic() {
+            return atomic;
+        }
+
+        @Override
+        public String toString() {
+            return "ADD_" + delta;
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            if (atomic) {
+                ((ResourceImpl) r).addValueAtomically(delta);
+            } else {
+                ((ResourceImpl) r).addValue(delta);
+            }
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            if (atomic) {
+                ((ResourceImpl) r).addValueAtomically(-delta);
+            } else {
+                ((ResourceImpl) r).addValue(-delta);
+            }
+        }
+    }
+
+    private static final class SetOpImpl extends ResourceOperation {
+        private final long value;
+        private long previous;
+
+        public SetOpImpl(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "SET_" + value;
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            previous = ((ResourceImpl) r).getValue();
+            ((ResourceImpl) r).setValue(value);
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).setValue(previous);
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private long value; // Value seen by the last execution.
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            value = ((ResourceImpl) r).getValue();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/* Sprawdza każdą ze strategii obsługi zakleszczeń:
+ * - dwie transakcje biorące dwa zasoby w przeciwnej kolejności nie zakleszczają się,
+ *   a przerwana zostaje młodsza z nich, bez przerywania (interrupt) jej wątku,
+ * - w wound-wait transakcja przerwana przez starszą w trakcie własnego Thread.sleep
+ *   nie dostaje InterruptedException, a o przerwaniu dowiaduje się przy następnej operacji,
+ * - przy wielu wątkach wykonujących transakcje na losowych zasobach nic się nie
+ *   zawiesza, a wartości zasobów odpowiadają tylko zatwierdzonym transakcjom.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+public class TestDeadlockPolicies {
+
+    private final static long BASE_WAIT_TIME = 100;
+    private final static int THREADS = 8;
+    private final static int RESOURCES = 8;
+    private final static long RANDOM_DURATION_MS = 500;
+
+    public static void main(String[] args) {
+        List<Supplier<DeadlockPolicy>> policies = List.of(
+                DeadlockPolicy::detection,
+                DeadlockPolicy::woundWait,
+                DeadlockPolicy::waitDie,
+                DeadlockPolicy::noWait
+        );
+        for (Supplier<DeadlockPolicy> policy : policies) {
+            youngerAborted(policy.get());
+            randomTransactions(policy.get());
+        }
+        woundedWhileSleeping();
+        System.out.println("OK");
+    }
+
+    // The younger transaction asks for the resource of the older one first,
+    // so that no policy has to abort a transaction that is not waiting.
+    private static void youngerAborted(DeadlockPolicy policy) {
+        List<ResourceImpl> R = List.of(
+                new ResourceImpl(ResourceIdImpl.generate()),
+                new ResourceImpl(ResourceIdImpl.generate())
+        );
+        TransactionManager tm = newTM(R, policy);
+        AtomicInteger aborted = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final int k = i;
+            threads.add(new Thread(() -> {
+                try {
+                    Thread.sleep(k * BASE_WAIT_TIME);
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(R.get(k).getId(), ResourceOpImpl.get());
+                    Thread.sleep((3 - 2 * k) * BASE_WAIT_TIME);
+                    tm.operateOnResourceInCurrentTransaction(R.get(1 - k).getId(), ResourceOpImpl.get());
+                    tm.commitCurrentTransaction();
+                    if (k == 1) {
+                        throw new AssertionError("The younger transaction should have been aborted");
+                    }
+                } catch (ActiveTransactionAborted e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new AssertionError("The aborted transaction's thread has been interrupted");
+                    }
+                    aborted.incrementAndGet();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            }));
+        }
+        runAll(threads);
+        if (aborted.get() != 1) {
+            throw new AssertionError("Expected one aborted transaction, got " + aborted.get());
+        }
+        expectTotal(R, 2);
+    }
+
+    // The younger transaction holds R0 and sleeps, the older one asks for R0 meanwhile.
+    private static void woundedWhileSleeping() {
+        List<ResourceImpl> R = List.of(new ResourceImpl(ResourceIdImpl.generate()));
+        TransactionManager tm = newTM(R, DeadlockPolicy.woundWait());
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                tm.startTransaction();
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.operateOnResourceInCurrentTransaction(R.get(0).getId(), ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        threads.add(new Thread(() -> {
+            try {
+                Thread.sleep(BASE_WAIT_TIME / 2);
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(R.get(0).getId(), ResourceOpImpl.get());
+                try {
+                    Thread.sleep(3 * BASE_WAIT_TIME);
+                } catch (InterruptedException e) {
+                    throw new AssertionError("The wounded transaction's sleep has been interrupted");
+                }
+                if (!tm.isTransactionAborted()) {
+                    throw new AssertionError("The younger transaction should have been aborted");
+                }
+                tm.operateOnResourceInCurrentTransaction(R.get(0).getId(), ResourceOpImpl.get());
+                throw new AssertionError("An aborted transaction has operated on a resource");
+            } catch (ActiveTransactionAborted e) {
+                // Expected.
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        runAll(threads);
+        expectTotal(R, 1);
+    }
+
+    private static void randomTransactions(DeadlockPolicy policy) {
+        List<ResourceImpl> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = newTM(R, policy);
+        AtomicLong committedOperations = new AtomicLong(0);
+        long end = System.currentTimeMillis() + RANDOM_DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    int n = 2 + random.nextInt(2);
+                    try {
+                        tm.startTransaction();
+                        for (int j = 0; j < n; j++) {
+                            ResourceId rid = R.get(random.nextInt(RESOURCES)).getId();
+                            tm.operateOnResourceInCurrentTransaction(rid, ResourceOpImpl.get());
+                        }
+                        tm.commitCurrentTransaction();
+                        committedOperations.addAndGet(n);
+                    } catch (ActiveTransactionAborted e) {
+                        // Tried again with other resources.
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+        expectTotal(R, committedOperations.get());
+    }
+
+    private static TransactionManager newTM(List<ResourceImpl> R, DeadlockPolicy policy) {
+        return TransactionManagerFactory.newTM(
+                Collections.unmodifiableList(new ArrayList<Resource>(R)),
+                new LocalTimeProviderImpl(),
+                policy
+        );
+    }
+
+    private static void expectTotal(List<ResourceImpl> R, long val) {
+        long total = 0;
+        for (ResourceImpl r : R) {
+            total += r.getValue();
+        }
+        if (total != val) {
+            throw new AssertionError("Expected total value " + val + ", but got " + total);
+        }
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/* Sprawdza transakcje z odroczonymi operacjami, dla obu zarządców:
+ * - operacje są wykonywane dopiero przy zatwierdzeniu, a wycofanie transakcji ich nie wykonuje,
+ * - do zatwierdzenia transakcja nie zajmuje zasobów, więc inna transakcja może je zmieniać,
+ * - operacja, która nie powiodła się przy zatwierdzeniu, przerywa transakcję, a jej
+ *   wycofanie cofa wykonane już operacje.
+ * Dla MyManager sprawdza też, że wiele wątków zmieniających losowe zasoby w losowej
+ * kolejności transakcjami odroczonymi nigdy się nie zakleszcza i nie jest przerywanych.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+public class TestDeferred {
+
+    private final static int THREADS = 8;
+    private final static int RESOURCES = 6;
+    private final static long RANDOM_DURATION_MS = 500;
+    private final static Duration WRITER_TIMEOUT = Duration.ofSeconds(1);
+
+    public static void main(String[] args) throws Exception {
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            executedAtCommit(newTM);
+            notHeldBeforeCommit(newTM);
+            failureAtCommit(newTM);
+        }
+        noAborts();
+        System.out.println("OK");
+    }
+
+    private static void executedAtCommit(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        try {
+            tm.startDeferredTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            expectResourceValue(r, 0);
+            tm.rollbackCurrentTransaction();
+            expectResourceValue(r, 0);
+
+            tm.startDeferredTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            tm.operateOnResourcesInCurrentTransaction(Arrays.asList(new ResourceOperationPair(r.getId(), ResourceOpImpl.get())));
+            expectResourceValue(r, 0);
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 2);
+    }
+
+    private static void notHeldBeforeCommit(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        try {
+            tm.startDeferredTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            Thread writer = new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    if (!tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get(), WRITER_TIMEOUT)) {
+                        throw new AssertionError("A deferred transaction has held a resource before commit");
+                    }
+                    tm.commitCurrentTransaction();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            });
+            writer.start();
+            writer.join();
+            expectResourceValue(r, 1);
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 2);
+    }
+
+    private static void failureAtCommit(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        try {
+            tm.startDeferredTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            tm.operateOnResourceInCurrentTransaction(r.getId(), new FailingOpImpl());
+            tm.commitCurrentTransaction();
+            throw new AssertionError("A transaction with a failed operation has been committed");
+        } catch (ActiveTransactionAborted e) {
+            if (!tm.isTransactionActive() || !tm.isTransactionAborted()) {
+                throw new AssertionError("The transaction should be active and aborted");
+            }
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 0);
+    }
+
+    private static void noAborts() throws InterruptedException {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl ri = new ResourceImpl(ResourceIdImpl.generate());
+            RI.add(ri);
+            R.add(ri);
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        AtomicLong[] committed = new AtomicLong[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            committed[i] = new AtomicLong(0);
+        }
+        long end = System.currentTimeMillis() + RANDOM_DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    List<Integer> chosen = new ArrayList<>();
+                    for (int j = 0; j < RESOURCES; j++) {
+                        if (random.nextBoolean()) {
+                            chosen.add(j);
+                        }
+                    }
+                    Collections.shuffle(chosen, random);
+                    try {
+                        tm.startDeferredTransaction();
+                        for (int index : chosen) {
+                            tm.operateOnResourceInCurrentTransaction(R.get(index).getId(), ResourceOpImpl.get());
+                            Thread.yield();
+                        }
+                        tm.commitCurrentTransaction();
+                        for (int index : chosen) {
+                            committed[index].incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < RESOURCES; i++) {
+            expectResourceValue(RI.get(i), committed[i].get());
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class FailingOpImpl extends ResourceOperation {
+        @Override
+        public String toString() {
+            return "FAIL_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) throws ResourceOperationException {
+            throw new ResourceOperationException(r.getId(), this);
+        }
+
+        @Override
+        public void undo(Resource r) {
+            throw new AssertionError("A failed operation has been undone");
+        }
+    }
+}
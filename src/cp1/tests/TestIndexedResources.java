@@ -0,0 +1,205 @@
+/* Sprawdza zasoby o identyfikatorach IndexedResourceId, dla obu zarządców:
+ * - operacje na zasobach wyszukiwanych po indeksie działają jak zwykle,
+ * - identyfikator zasobu innego zarządcy o tym samym indeksie jest nieznany,
+ * - zasoby o powtarzających się indeksach są obsługiwane jak zasoby o zwykłych identyfikatorach.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+public class TestIndexedResources {
+
+    private final static int RESOURCES = 10;
+
+    public static void main(String[] args) throws Exception {
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            operate(newTM, 0);
+            operate(newTM, RESOURCES / 2);
+            foreignId(newTM);
+        }
+        System.out.println("OK");
+    }
+
+    // Every resource is increased once, indexes repeat every period unless it is 0.
+    private static void operate(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM, int period)
+            throws Exception {
+        List<ResourceImpl> RI = newResources(period);
+        TransactionManager tm = newTM.apply(new ArrayList<>(RI), new LocalTimeProviderImpl());
+        try {
+            tm.startTransaction();
+            for (ResourceImpl r : RI) {
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            }
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        for (ResourceImpl r : RI) {
+            expectResourceValue(r, 1);
+        }
+    }
+
+    private static void foreignId(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        List<ResourceImpl> RI = newResources(0);
+        ResourceId foreign = newResources(0).get(0).getId();
+        TransactionManager tm = newTM.apply(new ArrayList<>(RI), new LocalTimeProviderImpl());
+        try {
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(foreign, ResourceOpImpl.get());
+            throw new AssertionError("A resource of another manager has been found");
+        } catch (UnknownResourceIdException e) {
+            // Expected.
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(RI.get(0), 0);
+    }
+
+    private static List<ResourceImpl> newResources(int period) {
+        List<ResourceImpl> RI = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            RI.add(new ResourceImpl(IndexedResourceIdImpl.generate(period == 0 ? i : i % period)));
+        }
+        return RI;
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class IndexedResourceIdImpl implements IndexedResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate(int index) {
+            return new IndexedResourceIdImpl(next++, index);
+        }
+
+        private final int value;
+        private final int index;
+
+        private IndexedResourceIdImpl(int value, int index) {
+            this.value = value;
+            this.index = index;
+        }
+
+        @Override
+        public int getIndex() {
+            return this.index;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof IndexedResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            IndexedResourceIdImpl second = (IndexedResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof IndexedResourceIdImpl)) {
+                return false;
+            }
+            IndexedResourceIdImpl second = (IndexedResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/* Sprawdza poziomy izolacji transakcji, dla obu zarządców:
+ * - transakcja READ_COMMITTED nie blokuje zasobu po jego przeczytaniu, więc transakcja
+ *   pisząca nie czeka na nią, a ponowny odczyt widzi zatwierdzoną zmianę,
+ * - transakcja SNAPSHOT czyta wciąż ten sam stan zasobu, choć inna transakcja go zmieniła,
+ *   i może zatwierdzić zmiany zasobów, których nikt inny nie zmienił od jej początku,
+ * - transakcja SNAPSHOT, która zmienia zasób zatwierdzony przez inną transakcję po jej
+ *   początku, zostaje przerwana (wygrywa ta, która zatwierdziła pierwsza).
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+
+public class TestIsolationLevels {
+
+    private final static Duration WRITER_TIMEOUT = Duration.ofSeconds(1);
+
+    public static void main(String[] args) throws Exception {
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            readCommittedDoesNotBlockWriter(newTM);
+            snapshotReadsStableState(newTM);
+            snapshotFirstCommitterWins(newTM);
+        }
+        System.out.println("OK");
+    }
+
+    private static void readCommittedDoesNotBlockWriter(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        ReadOpImpl op = new ReadOpImpl();
+        try {
+            tm.startTransaction(IsolationLevel.READ_COMMITTED);
+            tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+            expectRead(op, 0);
+            commitIncrement(tm, r);
+            tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+            expectRead(op, 1);
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 1);
+    }
+
+    private static void snapshotReadsStableState(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl s = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r, s), new LocalTimeProviderImpl());
+        ReadOpImpl op = new ReadOpImpl();
+        try {
+            tm.startTransaction(IsolationLevel.SNAPSHOT);
+            tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+            expectRead(op, 0);
+            commitIncrement(tm, r);
+            tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+            expectRead(op, 0);
+            tm.operateOnResourceInCurrentTransaction(s.getId(), ResourceOpImpl.get());
+            tm.operateOnResourceInCurrentTransaction(s.getId(), op);
+            expectRead(op, 1);
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 1);
+        expectResourceValue(s, 1);
+    }
+
+    private static void snapshotFirstCommitterWins(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        try {
+            tm.startTransaction(IsolationLevel.SNAPSHOT);
+            tm.operateOnResourceInCurrentTransaction(r.getId(), new ReadOpImpl());
+            commitIncrement(tm, r);
+            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            throw new AssertionError("A lost update has not been detected");
+        } catch (ActiveTransactionAborted e) {
+            // Expected.
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 1);
+    }
+
+    // Increments resource in a serializable transaction of another thread, which must not wait long.
+    private static void commitIncrement(TransactionManager tm, ResourceImpl r) throws InterruptedException {
+        Thread writer = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                if (!tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get(), WRITER_TIMEOUT)) {
+                    throw new AssertionError("The writer has been blocked by a reader");
+                }
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        writer.start();
+        writer.join();
+    }
+
+    private static void expectRead(ReadOpImpl op, long val) {
+        if (op.value != val) {
+            throw new AssertionError("Expected to read " + val + ", but read " + op.value);
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource implements VersionedResource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        private ResourceImpl(ResourceId id, long value) {
+            super(id);
+            this.value = value;
+        }
+
+        @Override
+        public Resource copy() {
+            return new ResourceImpl(getId(), value);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private long value; // Value seen by the last execution.
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            value = ((ResourceImpl) r).getValue();
+        }
+    }
+}
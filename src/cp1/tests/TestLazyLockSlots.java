@@ -0,0 +1,216 @@
+/* Sprawdza MyManager z tak dużą liczbą zasobów (RESOURCES), że stan blokad zasobu
+ * istnieje tylko wtedy, gdy ktoś go używa. THREADS wątków przez RANDOM_DURATION_MS
+ * zwiększa losowe spośród HOT pierwszych zasobów i losowe spośród pozostałych, w losowej
+ * kolejności, więc stan blokad jest ciągle tworzony i usuwany, a transakcje się zakleszczają.
+ * Na koniec każdy zasób ma mieć wartość równą liczbie zatwierdzonych transakcji, które go
+ * zwiększyły. Sprawdza to dla zwykłych identyfikatorów i dla IndexedResourceId.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
+
+public class TestLazyLockSlots {
+
+    private final static int RESOURCES = 100_000;
+    private final static int HOT = 4;
+    private final static int OPERATIONS = 3;
+    private final static int THREADS = 8;
+    private final static long RANDOM_DURATION_MS = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        run(ResourceIdImpl::new);
+        run(IndexedResourceIdImpl::new);
+        System.out.println("OK");
+    }
+
+    private static void run(IntFunction<ResourceId> newId) throws InterruptedException {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl ri = new ResourceImpl(newId.apply(i));
+            RI.add(ri);
+            R.add(ri);
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        AtomicLongArray committed = new AtomicLongArray(RESOURCES);
+        long end = System.currentTimeMillis() + RANDOM_DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    List<Integer> chosen = new ArrayList<>();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        int index = random.nextBoolean() ? random.nextInt(HOT) : HOT + random.nextInt(RESOURCES - HOT);
+                        if (!chosen.contains(index)) {
+                            chosen.add(index);
+                        }
+                    }
+                    Collections.shuffle(chosen, random);
+                    try {
+                        tm.startTransaction();
+                        for (int index : chosen) {
+                            tm.operateOnResourceInCurrentTransaction(R.get(index).getId(), ResourceOpImpl.get());
+                            Thread.yield();
+                        }
+                        tm.commitCurrentTransaction();
+                        for (int index : chosen) {
+                            committed.incrementAndGet(index);
+                        }
+                    } catch (ActiveTransactionAborted e) {
+                        // Deadlock victim.
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < RESOURCES; i++) {
+            expectResourceValue(RI.get(i), committed.get(i));
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static class ResourceIdImpl implements ResourceId {
+        protected final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class IndexedResourceIdImpl extends ResourceIdImpl implements IndexedResourceId {
+        private IndexedResourceIdImpl(int value) {
+            super(value);
+        }
+
+        @Override
+        public int getIndex() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
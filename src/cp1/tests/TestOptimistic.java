@@ -0,0 +1,403 @@
+/* Sprawdza optymistycznego zarządcę transakcji:
+ * - transakcja pisząca do zasobu zajętego przez inną nie czeka, tylko zostaje przerwana,
+ *   a tryOperate... zwraca wtedy false bez przerywania,
+ * - tryOperate... czytające zasób, który zmieniła w trakcie odczytu inna transakcja, nie zwraca
+ *   false po wykonaniu operacji: zasób z wersjami czyta z kopii, a przy pozostałych przerywa
+ *   transakcję,
+ * - transakcja, która czytała zasób zmieniony potem przez zatwierdzoną transakcję,
+ *   zostaje przerwana przy zatwierdzaniu,
+ * - przy wielu wątkach zatwierdzone transakcje czytające dwa zasoby zawsze widzą
+ *   równe wartości, bo transakcje piszące zwiększają oba naraz.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestOptimistic {
+
+    private final static int THREADS = 8;
+    private final static long RANDOM_DURATION_MS = 500;
+
+    public static void main(String[] args) throws Exception {
+        writeConflict();
+        readValidation();
+        tryReadOvertaken(new VersionedResourceImpl(ResourceIdImpl.generate()));
+        tryReadOvertaken(new ResourceImpl(ResourceIdImpl.generate()));
+        consistentReads();
+        System.out.println("OK");
+    }
+
+    private static void writeConflict() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM(r);
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch checked = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                written.countDown();
+                checked.await();
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        writer.start();
+        written.await();
+        try {
+            tm.startTransaction();
+            if (tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get())) {
+                throw new AssertionError("Resource in use by another transaction has been written");
+            }
+            if (tm.isTransactionAborted()) {
+                throw new AssertionError("A failed try should not abort the transaction");
+            }
+            try {
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                throw new AssertionError("Resource in use by another transaction has been written");
+            } catch (ActiveTransactionAborted e) {
+                // Expected.
+            }
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        checked.countDown();
+        writer.join();
+        expectResourceValue(r, 1);
+    }
+
+    private static void readValidation() throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM(r);
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(r.getId(), ReadOpImpl.get());
+        Thread writer = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        writer.start();
+        writer.join();
+        try {
+            tm.commitCurrentTransaction();
+            throw new AssertionError("A transaction that read a changed resource has been committed");
+        } catch (ActiveTransactionAborted e) {
+            // Expected.
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 1);
+    }
+
+    // Another transaction writes the resource while it is being read (copied, if it has versions).
+    private static void tryReadOvertaken(ResourceImpl r) throws Exception {
+        TransactionManager tm = newTM(r);
+        Runnable write = () -> {
+            Thread writer = new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                    tm.commitCurrentTransaction();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            });
+            writer.start();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        };
+        ReadOpImpl read = new ReadOpImpl();
+        if (r instanceof VersionedResourceImpl) {
+            ((VersionedResourceImpl) r).beforeCopy = write;
+        } else {
+            read.beforeExecute = write;
+        }
+        try {
+            tm.startTransaction();
+            if (!tm.tryOperateOnResourceInCurrentTransaction(r.getId(), read, Duration.ofSeconds(1))) {
+                throw new AssertionError("Gave up reading a resource");
+            }
+            if (!(r instanceof VersionedResourceImpl)) {
+                throw new AssertionError("A read overtaken by a write has not aborted the transaction");
+            }
+            if (read.executions != 1 || read.value != 1) {
+                throw new AssertionError("Read " + read.executions + " times, last saw " + read.value);
+            }
+            tm.commitCurrentTransaction();
+        } catch (ActiveTransactionAborted e) {
+            if (r instanceof VersionedResourceImpl) {
+                throw new AssertionError(e);
+            }
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 1);
+    }
+
+    private static void consistentReads() {
+        ResourceImpl x = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl y = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM(x, y);
+        AtomicLong committedWrites = new AtomicLong(0);
+        long end = System.currentTimeMillis() + RANDOM_DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        tm.startTransaction();
+                        if (random.nextBoolean()) {
+                            tm.operateOnResourceInCurrentTransaction(x.getId(), ResourceOpImpl.get());
+                            tm.operateOnResourceInCurrentTransaction(y.getId(), ResourceOpImpl.get());
+                            tm.commitCurrentTransaction();
+                            committedWrites.incrementAndGet();
+                        } else {
+                            ReadOpImpl readX = new ReadOpImpl();
+                            ReadOpImpl readY = new ReadOpImpl();
+                            tm.operateOnResourceInCurrentTransaction(x.getId(), readX);
+                            tm.operateOnResourceInCurrentTransaction(y.getId(), readY);
+                            tm.commitCurrentTransaction();
+                            if (readX.value != readY.value) {
+                                throw new AssertionError("Committed transaction read " +
+                                        readX.value + " and " + readY.value);
+                            }
+                        }
+                    } catch (ActiveTransactionAborted e) {
+                        // Tried again.
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+        expectResourceValue(x, committedWrites.get());
+        expectResourceValue(y, committedWrites.get());
+    }
+
+    private static TransactionManager newTM(Resource... r) {
+        List<Resource> resources = Collections.unmodifiableList(Arrays.asList(r));
+        return TransactionManagerFactory.newOptimisticTM(resources, new LocalTimeProviderImpl());
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        protected ResourceImpl(ResourceId id, long value) {
+            super(id);
+            this.value = value;
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class VersionedResourceImpl extends ResourceImpl implements VersionedResource {
+        private Runnable beforeCopy; // Run by the next copy only.
+
+        public VersionedResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        private VersionedResourceImpl(ResourceId id, long value) {
+            super(id, value);
+        }
+
+        @Override
+        public Resource copy() {
+            Runnable hook = beforeCopy;
+            beforeCopy = null;
+            if (hook != null) {
+                hook.run();
+            }
+            return new VersionedResourceImpl(getId(), getValue());
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private final static ReadOpImpl singleton = new ReadOpImpl();
+        private long value; // Value seen by the last execution.
+        private int executions;
+        private Runnable beforeExecute; // Run by the next execution only.
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            Runnable hook = beforeExecute;
+            beforeExecute = null;
+            if (hook != null) {
+                hook.run();
+            }
+            value = ((ResourceImpl) r).getValue();
+            executions++;
+        }
+    }
+}
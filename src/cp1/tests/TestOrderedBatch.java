@@ -0,0 +1,252 @@
+/* Sprawdza operacje na wielu zasobach naraz (operateOnResourcesInCurrentTransaction):
+ * - transakcje korzystające tylko z nich nie są nigdy przerywane,
+ * - w zakleszczeniu z transakcją zajmującą zasoby w dowolnej kolejności
+ *   ofiarą jest ta druga, nawet jeśli jest starsza.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestOrderedBatch {
+
+    private final static long BASE_WAIT_TIME = 100;
+    private final static int RESOURCES = 10;
+    private final static int THREADS = 8;
+    private final static int REPS = 500;
+    private final static int BATCH = 5;
+
+    public static void main(String[] args) {
+        batchesNeverAbort();
+        unorderedIsVictim();
+        System.out.println("OK");
+    }
+
+    private static void batchesNeverAbort() {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl ri = new ResourceImpl(ResourceIdImpl.generate());
+            RI.add(ri);
+            R.add(ri);
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                Random random = new Random();
+                for (int j = 0; j < REPS; j++) {
+                    List<Resource> shuffled = new ArrayList<>(R);
+                    Collections.shuffle(shuffled, random);
+                    List<ResourceOperationPair> batch = new ArrayList<>();
+                    for (int k = 0; k < BATCH; k++) {
+                        batch.add(new ResourceOperationPair(shuffled.get(k).getId(), ResourceOpImpl.get()));
+                    }
+                    try {
+                        tm.startTransaction();
+                        tm.operateOnResourcesInCurrentTransaction(batch);
+                        tm.commitCurrentTransaction();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+        long sum = 0;
+        for (ResourceImpl ri : RI) {
+            sum += ri.getValue();
+        }
+        if (sum != (long) THREADS * REPS * BATCH) {
+            throw new AssertionError("Expected sum " + (long) THREADS * REPS * BATCH + ", got " + sum);
+        }
+    }
+
+    private static void unorderedIsVictim() {
+        ResourceImpl r0 = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r0, r1), new LocalTimeProviderImpl());
+        AtomicInteger unorderedAborted = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        // Older transaction, takes r1 and then waits for r0.
+        threads.add(new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+                Thread.sleep(2 * BASE_WAIT_TIME);
+                tm.operateOnResourceInCurrentTransaction(r0.getId(), ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            } catch (ActiveTransactionAborted e) {
+                unorderedAborted.incrementAndGet();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        // Younger transaction, takes r0 and r1 in order.
+        threads.add(new Thread(() -> {
+            try {
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.startTransaction();
+                tm.operateOnResourcesInCurrentTransaction(
+                        Arrays.asList(new ResourceOperationPair(r0.getId(), ResourceOpImpl.get())));
+                Thread.sleep(2 * BASE_WAIT_TIME);
+                tm.operateOnResourcesInCurrentTransaction(
+                        Arrays.asList(new ResourceOperationPair(r1.getId(), ResourceOpImpl.get())));
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        runAll(threads);
+        if (unorderedAborted.get() != 1) {
+            throw new AssertionError("The unordered transaction should have been aborted");
+        }
+        expectResourceValue(r0, 1);
+        expectResourceValue(r1, 1);
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
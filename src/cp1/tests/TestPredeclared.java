@@ -0,0 +1,290 @@
+/* Sprawdza transakcje z zadeklarowanym z góry zbiorem zasobów:
+ * - operacja na niezadeklarowanym zasobie kończy się od razu UnknownResourceIdException,
+ *   a transakcja może działać dalej (dla obu zarządców),
+ * - zadeklarowane zasoby są zajmowane już przy rozpoczęciu transakcji,
+ * - wiele wątków deklarujących losowe zbiory zasobów i zmieniających je w losowej
+ *   kolejności nigdy się nie zakleszcza i żadna transakcja nie zostaje przerwana.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+public class TestPredeclared {
+
+    private final static int THREADS = 8;
+    private final static int RESOURCES = 6;
+    private final static long RANDOM_DURATION_MS = 500;
+    private final static Duration SHORT_TIMEOUT = Duration.ofMillis(100);
+
+    public static void main(String[] args) throws Exception {
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            undeclaredResource(newTM);
+        }
+        acquiredUpFront();
+        noAborts();
+        System.out.println("OK");
+    }
+
+    private static void undeclaredResource(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r1, r2), new LocalTimeProviderImpl());
+        try {
+            tm.startTransaction(Collections.singletonList(r1.getId()));
+            try {
+                tm.operateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get());
+                throw new AssertionError("An undeclared resource has been used");
+            } catch (UnknownResourceIdException e) {
+                // Expected.
+            }
+            try {
+                tm.operateOnResourcesInCurrentTransaction(Arrays.asList(
+                        new ResourceOperationPair(r1.getId(), ResourceOpImpl.get()),
+                        new ResourceOperationPair(r2.getId(), ResourceOpImpl.get())));
+                throw new AssertionError("An undeclared resource has been used in a batch");
+            } catch (UnknownResourceIdException e) {
+                // Expected.
+            }
+            tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r1, 1);
+        expectResourceValue(r2, 0);
+    }
+
+    private static void acquiredUpFront() throws Exception {
+        ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r1, r2), new LocalTimeProviderImpl());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch tried = new CountDownLatch(1);
+        Thread declaring = new Thread(() -> {
+            try {
+                tm.startTransaction(Arrays.asList(r2.getId(), r1.getId()));
+                started.countDown();
+                tried.await();
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        declaring.start();
+        started.await();
+        try {
+            tm.startTransaction();
+            if (tm.tryOperateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get(), SHORT_TIMEOUT)) {
+                throw new AssertionError("A declared resource has not been acquired up front");
+            }
+            tried.countDown();
+            tm.operateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get());
+            tm.commitCurrentTransaction();
+        } finally {
+            tried.countDown();
+            tm.rollbackCurrentTransaction();
+        }
+        declaring.join();
+        expectResourceValue(r2, 1);
+    }
+
+    private static void noAborts() throws InterruptedException {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl ri = new ResourceImpl(ResourceIdImpl.generate());
+            RI.add(ri);
+            R.add(ri);
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        AtomicLong[] committed = new AtomicLong[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            committed[i] = new AtomicLong(0);
+        }
+        long end = System.currentTimeMillis() + RANDOM_DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    List<Integer> chosen = new ArrayList<>();
+                    for (int j = 0; j < RESOURCES; j++) {
+                        if (random.nextBoolean()) {
+                            chosen.add(j);
+                        }
+                    }
+                    Collections.shuffle(chosen, random);
+                    List<ResourceId> declared = new ArrayList<>();
+                    for (int index : chosen) {
+                        declared.add(R.get(index).getId());
+                    }
+                    try {
+                        tm.startTransaction(declared);
+                        Thread.yield();
+                        for (int index : chosen) {
+                            tm.operateOnResourceInCurrentTransaction(R.get(index).getId(), ResourceOpImpl.get());
+                        }
+                        tm.commitCurrentTransaction();
+                        for (int index : chosen) {
+                            committed[index].incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < RESOURCES; i++) {
+            expectResourceValue(RI.get(i), committed[i].get());
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
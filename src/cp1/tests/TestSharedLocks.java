@@ -0,0 +1,293 @@
+/* Sprawdza blokady współdzielone:
+ * - dwie transakcje czytające ten sam zasób nie czekają na siebie,
+ * - transakcja pisząca czeka, aż czytające się zakończą,
+ * - dwie transakcje czytające, które chcą potem pisać, tworzą zakleszczenie
+ *   i młodsza z nich zostaje przerwana.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSharedLocks {
+
+    private final static long BASE_WAIT_TIME = 100;
+
+    public static void main(String[] args) {
+        concurrentReaders();
+        writerWaitsForReaders();
+        upgradeDeadlock();
+        System.out.println("OK");
+    }
+
+    private static void concurrentReaders() {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM(r);
+        AtomicInteger reading = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(r.getId(), ReadOpImpl.get());
+                    reading.incrementAndGet();
+                    Thread.sleep(2 * BASE_WAIT_TIME);
+                    if (reading.get() != 2) {
+                        throw new AssertionError("Readers did not share the resource");
+                    }
+                    tm.commitCurrentTransaction();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            }));
+        }
+        runAll(threads);
+    }
+
+    private static void writerWaitsForReaders() {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM(r);
+        AtomicInteger readersDone = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(r.getId(), ReadOpImpl.get());
+                    Thread.sleep(3 * BASE_WAIT_TIME);
+                    readersDone.incrementAndGet();
+                    tm.commitCurrentTransaction();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                if (readersDone.get() != 2) {
+                    throw new AssertionError("Writer did not wait for readers");
+                }
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        runAll(threads);
+        expectResourceValue(r, 1);
+    }
+
+    private static void upgradeDeadlock() {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM(r);
+        AtomicInteger aborted = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final int delay = i;
+            threads.add(new Thread(() -> {
+                try {
+                    Thread.sleep(delay * BASE_WAIT_TIME);
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(r.getId(), ReadOpImpl.get());
+                    Thread.sleep((3 - 2 * delay) * BASE_WAIT_TIME);
+                    tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                    tm.commitCurrentTransaction();
+                    if (delay != 0) {
+                        throw new AssertionError("The younger transaction should have been aborted");
+                    }
+                } catch (ActiveTransactionAborted e) {
+                    aborted.incrementAndGet();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            }));
+        }
+        runAll(threads);
+        if (aborted.get() != 1) {
+            throw new AssertionError("Expected one aborted transaction, got " + aborted.get());
+        }
+        expectResourceValue(r, 1);
+    }
+
+    private static TransactionManager newTM(Resource r) {
+        List<Resource> resources = Collections.unmodifiableList(Arrays.asList(r));
+        return TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private final static ReadOpImpl singleton = new ReadOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ReadOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).getValue();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/* Sprawdza transakcje tylko do odczytu czytające migawkę, dla obu zarządców:
+ * - transakcja czytająca nie czeka na transakcję, która zmieniła zasób, i widzi stan
+ *   sprzed jej zatwierdzenia także po nim; nowa transakcja czytająca widzi już zmianę,
+ * - transakcja czytająca nie może zmieniać zasobów (ResourceOperationException) ani czytać
+ *   zasobów bez wersji (UnknownResourceIdException),
+ * - przy wielu wątkach transakcje czytające zawsze widzą równe wartości dwóch zasobów,
+ *   zwiększanych naraz przez transakcje piszące, i nigdy nie są przerywane.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+public class TestSnapshotReads {
+
+    private final static int THREADS = 8;
+    private final static long RANDOM_DURATION_MS = 500;
+
+    public static void main(String[] args) throws Exception {
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            readerDoesNotWait(newTM);
+            readerCannotWrite(newTM);
+            readerNeedsVersions(newTM);
+            consistentSnapshots(newTM);
+        }
+        System.out.println("OK");
+    }
+
+    private static void readerDoesNotWait(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                written.countDown();
+                read.await();
+                tm.commitCurrentTransaction();
+                committed.countDown();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        writer.start();
+        written.await();
+        ReadOpImpl op = new ReadOpImpl();
+        try {
+            tm.startReadOnlyTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+            expectRead(op, 0);
+            read.countDown();
+            committed.await();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+            expectRead(op, 0);
+            tm.commitCurrentTransaction();
+
+            tm.startReadOnlyTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), op);
+            expectRead(op, 1);
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        writer.join();
+    }
+
+    private static void readerCannotWrite(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        try {
+            tm.startReadOnlyTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+            throw new AssertionError("A read-only transaction has changed a resource");
+        } catch (ResourceOperationException e) {
+            // Expected.
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 0);
+    }
+
+    private static void readerNeedsVersions(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        Resource r = new PlainResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        try {
+            tm.startReadOnlyTransaction();
+            tm.operateOnResourceInCurrentTransaction(r.getId(), new ReadOpImpl());
+            throw new AssertionError("A read-only transaction has read a resource without versions");
+        } catch (UnknownResourceIdException e) {
+            // Expected.
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+    }
+
+    private static void consistentSnapshots(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM) {
+        ResourceImpl x = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl y = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Collections.unmodifiableList(Arrays.asList(x, y)), new LocalTimeProviderImpl());
+        AtomicLong committedWrites = new AtomicLong(0);
+        long end = System.currentTimeMillis() + RANDOM_DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final boolean reader = i % 2 == 0;
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                ReadOpImpl readX = new ReadOpImpl();
+                ReadOpImpl readY = new ReadOpImpl();
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        if (reader) {
+                            tm.startReadOnlyTransaction();
+                            tm.operateOnResourceInCurrentTransaction(x.getId(), readX);
+                            tm.operateOnResourceInCurrentTransaction(y.getId(), readY);
+                            tm.commitCurrentTransaction();
+                            if (readX.value != readY.value) {
+                                throw new AssertionError("Snapshot read " + readX.value + " and " + readY.value);
+                            }
+                        } else {
+                            tm.startTransaction();
+                            boolean xFirst = random.nextBoolean();
+                            tm.operateOnResourceInCurrentTransaction((xFirst ? x : y).getId(), ResourceOpImpl.get());
+                            tm.operateOnResourceInCurrentTransaction((xFirst ? y : x).getId(), ResourceOpImpl.get());
+                            tm.commitCurrentTransaction();
+                            committedWrites.incrementAndGet();
+                        }
+                    } catch (ActiveTransactionAborted e) {
+                        if (reader) {
+                            throw new AssertionError("A read-only transaction has been aborted");
+                        }
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+        expectResourceValue(x, committedWrites.get());
+        expectResourceValue(y, committedWrites.get());
+    }
+
+    private static void expectRead(ReadOpImpl op, long val) {
+        if (op.value != val) {
+            throw new AssertionError("Expected to read " + val + ", but read " + op.value);
+        }
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource implements VersionedResource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        private ResourceImpl(ResourceId id, long value) {
+            super(id);
+            this.value = value;
+        }
+
+        @Override
+        public Resource copy() {
+            return new ResourceImpl(getId(), value);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class PlainResourceImpl extends Resource {
+        public PlainResourceImpl(ResourceId id) {
+            super(id);
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+
+    private static final class ReadOpImpl extends ReadOnlyResourceOperation {
+        private long value; // Value seen by the last execution.
+
+        @Override
+        public String toString() {
+            return "READ_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            value = ((ResourceImpl) r).getValue();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/* Sprawdza transakcje niezwiązane z wątkiem (TransactionHandle), dla obu zarządców:
+ * - HANDLES transakcji działa naraz w jednym wątku, obok jego własnej transakcji,
+ *   a są zatwierdzane przez pulę wątków,
+ * - transakcja wycofana w innym wątku niż ten, który ją zaczął, cofa swoje operacje,
+ * - zatwierdzona transakcja nie jest już aktywna.
+ * Dla MyManager sprawdza też, że zakleszczenie dwóch takich transakcji, wykonywanych
+ * przez dwa różne wątki, jest wykrywane, a przerwana zostaje dokładnie jedna z nich.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+public class TestTransactionHandles {
+
+    private final static int HANDLES = 100;
+    private final static int POOL_THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        List<BiFunction<List<Resource>, LocalTimeProvider, TransactionManager>> managers = List.of(
+                TransactionManagerFactory::newTM,
+                TransactionManagerFactory::newOptimisticTM
+        );
+        for (BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM : managers) {
+            committedByPool(newTM);
+            rolledBackByAnotherThread(newTM);
+        }
+        deadlockDetected();
+        System.out.println("OK");
+    }
+
+    private static void committedByPool(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i <= HANDLES; i++) {
+            ResourceImpl ri = new ResourceImpl(ResourceIdImpl.generate());
+            RI.add(ri);
+            R.add(ri);
+        }
+        TransactionManager tm = newTM.apply(R, new LocalTimeProviderImpl());
+        ExecutorService pool = Executors.newFixedThreadPool(POOL_THREADS);
+        try {
+            // The thread's own transaction does not get in the way.
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(R.get(HANDLES).getId(), ResourceOpImpl.get());
+            List<TransactionHandle> handles = new ArrayList<>();
+            for (int i = 0; i < HANDLES; i++) {
+                handles.add(tm.begin());
+            }
+            for (int i = 0; i < HANDLES; i++) {
+                handles.get(i).operateOnResource(R.get(i).getId(), ResourceOpImpl.get());
+            }
+            List<Future<?>> commits = new ArrayList<>();
+            for (TransactionHandle handle : handles) {
+                commits.add(pool.submit(() -> {
+                    handle.operateOnResource(R.get(handles.indexOf(handle)).getId(), ResourceOpImpl.get());
+                    handle.commit();
+                    return null;
+                }));
+            }
+            for (Future<?> commit : commits) {
+                commit.get();
+            }
+            for (TransactionHandle handle : handles) {
+                if (handle.isActive()) {
+                    throw new AssertionError("A committed transaction is still active");
+                }
+            }
+            try {
+                handles.get(0).commit();
+                throw new AssertionError("A committed transaction has been committed again");
+            } catch (NoActiveTransactionException e) {
+                // Expected.
+            }
+            if (!tm.isTransactionActive()) {
+                throw new AssertionError("The thread's own transaction should still be active");
+            }
+            tm.commitCurrentTransaction();
+        } finally {
+            tm.rollbackCurrentTransaction();
+            pool.shutdown();
+        }
+        for (int i = 0; i < HANDLES; i++) {
+            expectResourceValue(RI.get(i), 2);
+        }
+        expectResourceValue(RI.get(HANDLES), 1);
+    }
+
+    private static void rolledBackByAnotherThread(BiFunction<List<Resource>, LocalTimeProvider, TransactionManager> newTM)
+            throws Exception {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = newTM.apply(Arrays.asList(r), new LocalTimeProviderImpl());
+        TransactionHandle handle = tm.begin();
+        handle.operateOnResource(r.getId(), ResourceOpImpl.get());
+        Thread other = new Thread(handle::rollback);
+        other.start();
+        other.join();
+        expectResourceValue(r, 0);
+        if (handle.isActive()) {
+            throw new AssertionError("A rolled back transaction is still active");
+        }
+
+        // The resource has been released.
+        TransactionHandle next = tm.begin();
+        next.operateOnResource(r.getId(), ResourceOpImpl.get());
+        next.commit();
+        expectResourceValue(r, 1);
+    }
+
+    private static void deadlockDetected() throws Exception {
+        ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+        ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(Arrays.asList(r1, r2), new LocalTimeProviderImpl());
+        TransactionHandle h1 = tm.begin();
+        TransactionHandle h2 = tm.begin();
+        h1.operateOnResource(r1.getId(), ResourceOpImpl.get());
+        h2.operateOnResource(r2.getId(), ResourceOpImpl.get());
+
+        AtomicInteger aborted = new AtomicInteger(0);
+        List<Thread> threads = Arrays.asList(
+                waiter(h1, r2.getId(), aborted),
+                waiter(h2, r1.getId(), aborted)
+        );
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(TimeUnit.SECONDS.toMillis(10));
+            if (t.isAlive()) {
+                throw new AssertionError("A deadlock of detached transactions has not been detected");
+            }
+        }
+        if (aborted.get() != 1) {
+            throw new AssertionError("Expected exactly one victim, got " + aborted.get());
+        }
+        TransactionHandle survivor = h1.isActive() ? h1 : h2;
+        survivor.commit();
+        expectResourceValue(r1, 1);
+        expectResourceValue(r2, 1);
+    }
+
+    // Operates on the resource held by the other transaction, the victim is rolled back by its waiter.
+    private static Thread waiter(TransactionHandle handle, ResourceId rid, AtomicInteger aborted) {
+        return new Thread(() -> {
+            try {
+                handle.operateOnResource(rid, ResourceOpImpl.get());
+            } catch (ActiveTransactionAborted e) {
+                if (!handle.isAborted()) {
+                    throw new AssertionError("The victim should be aborted");
+                }
+                aborted.incrementAndGet();
+                handle.rollback();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
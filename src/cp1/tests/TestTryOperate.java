@@ -0,0 +1,268 @@
+/* Sprawdza tryOperateOnResourceInCurrentTransaction:
+ * - wersja bez czekania zwraca false od razu, gdy zasób jest zajęty,
+ * - wersja z czasem zwraca false po upływie czasu albo true, gdy zasób się zwolni,
+ * - po rezygnacji z czekania zasób jest od razu dostępny dla innych,
+ * - czas dłuższy, niż da się zapisać w nanosekundach, oznacza czekanie do skutku
+ *   (także w menedżerze optymistycznym).
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestTryOperate {
+
+    private final static long BASE_WAIT_TIME = 100;
+
+    public static void main(String[] args) {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                Collections.unmodifiableList(Arrays.asList(r)), new LocalTimeProviderImpl());
+
+        List<Thread> threads = new ArrayList<>();
+        // Holds the resource for 4 * BASE_WAIT_TIME.
+        threads.add(new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                Thread.sleep(4 * BASE_WAIT_TIME);
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        threads.add(new Thread(() -> {
+            try {
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.startTransaction();
+                long start = System.currentTimeMillis();
+                if (tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get())) {
+                    throw new AssertionError("Got access to a taken resource");
+                }
+                if (System.currentTimeMillis() - start >= BASE_WAIT_TIME) {
+                    throw new AssertionError("Waited for a taken resource");
+                }
+                start = System.currentTimeMillis();
+                if (tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get(),
+                        Duration.ofMillis(BASE_WAIT_TIME))) {
+                    throw new AssertionError("Got access to a taken resource");
+                }
+                if (System.currentTimeMillis() - start < BASE_WAIT_TIME) {
+                    throw new AssertionError("Gave up waiting too early");
+                }
+                if (!tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get(),
+                        Duration.ofMillis(10 * BASE_WAIT_TIME))) {
+                    throw new AssertionError("Did not get access to a released resource");
+                }
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        runAll(threads);
+        expectResourceValue(r, 2);
+
+        // Nobody waits any more, so the resource is free at once.
+        try {
+            tm.startTransaction();
+            if (!tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get())) {
+                throw new AssertionError("A free resource is not available");
+            }
+            tm.commitCurrentTransaction();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        expectResourceValue(r, 3);
+
+        longestTimeout(false);
+        longestTimeout(true);
+        System.out.println("OK");
+    }
+
+    private static void longestTimeout(boolean optimistic) {
+        ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+        List<Resource> resources = Collections.unmodifiableList(Arrays.asList(r));
+        TransactionManager tm = optimistic
+                ? TransactionManagerFactory.newOptimisticTM(resources, new LocalTimeProviderImpl())
+                : TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get());
+                Thread.sleep(2 * BASE_WAIT_TIME);
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        threads.add(new Thread(() -> {
+            try {
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.startTransaction();
+                if (!tm.tryOperateOnResourceInCurrentTransaction(r.getId(), ResourceOpImpl.get(),
+                        Duration.ofSeconds(Long.MAX_VALUE))) {
+                    throw new AssertionError("Did not get access to a released resource");
+                }
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        runAll(threads);
+        expectResourceValue(r, 2);
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/* Sprawdza wybór ofiary zakleszczenia. Starsza transakcja wykonuje jedną operację
+ * na jednym zasobie, młodsza wiele operacji na dwóch zasobach, potem obie czekają
+ * na siebie nawzajem:
+ * - YOUNGEST przerywa młodszą,
+ * - FEWEST_OPERATIONS i FEWEST_LOCKS przerywają starszą, która wykonała mniej pracy.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.TransactionManagerFactory;
+import cp1.solution.VictimSelection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestVictimSelection {
+
+    private final static long BASE_WAIT_TIME = 100;
+    private final static int YOUNGER_OPERATIONS = 10;
+
+    public static void main(String[] args) {
+        expectVictim(VictimSelection.YOUNGEST, 1);
+        expectVictim(VictimSelection.FEWEST_OPERATIONS, 0);
+        expectVictim(VictimSelection.FEWEST_LOCKS, 0);
+        System.out.println("OK");
+    }
+
+    // Transaction 0 takes R0 and then R1, transaction 1 takes R1 and R2 and then R0.
+    private static void expectVictim(VictimSelection selection, int victim) {
+        List<ResourceImpl> R = List.of(
+                new ResourceImpl(ResourceIdImpl.generate()),
+                new ResourceImpl(ResourceIdImpl.generate()),
+                new ResourceImpl(ResourceIdImpl.generate())
+        );
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                Collections.unmodifiableList(new ArrayList<Resource>(R)),
+                new LocalTimeProviderImpl(),
+                DeadlockPolicy.detection(selection)
+        );
+        AtomicInteger aborted = new AtomicInteger(-1);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(R.get(0).getId(), ResourceOpImpl.get());
+                Thread.sleep(3 * BASE_WAIT_TIME);
+                tm.operateOnResourceInCurrentTransaction(R.get(1).getId(), ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            } catch (ActiveTransactionAborted e) {
+                aborted.set(0);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        threads.add(new Thread(() -> {
+            try {
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.startTransaction();
+                for (int i = 0; i < YOUNGER_OPERATIONS; i++) {
+                    tm.operateOnResourceInCurrentTransaction(R.get(1 + i % 2).getId(), ResourceOpImpl.get());
+                }
+                tm.operateOnResourceInCurrentTransaction(R.get(0).getId(), ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            } catch (ActiveTransactionAborted e) {
+                aborted.set(1);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        }));
+        runAll(threads);
+        if (aborted.get() != victim) {
+            throw new AssertionError(selection + ": expected transaction " + victim +
+                    " to be aborted, but got " + aborted.get());
+        }
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/* Mierzy pamięć zajętą przez historię transakcji, która wykonuje OPERATIONS operacji:
+ * na jednym zasobie albo po kolei na RESOURCES zasobach, oraz czas jej wycofania.
+ * Pamięć to przyrost zajętej sterty po odśmieceniu, policzony na jedną operację,
+ * razem z wpisami zasobów, które transakcja zajmuje.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class UndoLogBenchmark {
+
+    private final static int RESOURCES = 10_000;
+    private final static int[] OPERATIONS = {10_000, 100_000, 1_000_000};
+    private final static int REPEATS = 3;
+
+    public static void main(String[] args) throws Exception {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+        System.out.printf("%10s %10s %16s %16s\n", "resources", "operations", "memory [B/op]", "rollback [ns/op]");
+        for (int resources : new int[]{1, RESOURCES}) {
+            for (int operations : OPERATIONS) {
+                // A collection during the measurement can only make the memory look smaller.
+                long memory = 0;
+                long rollback = Long.MAX_VALUE;
+                for (int r = 0; r < REPEATS; r++) {
+                    long[] result = measure(tm, R.subList(0, resources), operations);
+                    memory = Math.max(memory, result[0]);
+                    rollback = Math.min(rollback, result[1]);
+                }
+                System.out.printf("%10d %10d %16.1f %16.1f\n", resources, operations,
+                        (double) memory / operations, (double) rollback / operations);
+            }
+        }
+        for (Resource r : R) {
+            if (((ResourceImpl) r).getValue() != 0)
+                throw new AssertionError("Resource " + r.getId() + " not rolled back");
+        }
+    }
+
+    // Returns memory taken by the transaction and time of its rollback.
+    private static long[] measure(TransactionManager tm, List<Resource> R, int operations) throws Exception {
+        tm.startTransaction();
+        long before = usedMemory();
+        for (int i = 0; i < operations; i++) {
+            tm.operateOnResourceInCurrentTransaction(R.get(i % R.size()).getId(), ResourceOpImpl.get());
+        }
+        long memory = usedMemory() - before;
+        long start = System.nanoTime();
+        tm.rollbackCurrentTransaction();
+        return new long[]{memory, System.nanoTime() - start};
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
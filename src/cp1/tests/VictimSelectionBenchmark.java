@@ -0,0 +1,184 @@
+/* Porównuje strategie wyboru ofiary zakleszczenia. THREADS wątków przez DURATION_MS
+ * wykonuje transakcje w losowej kolejności na zasobach spośród RESOURCES; co LONG_EVERY-ta
+ * transakcja jest długa (LONG_OPERATIONS operacji), pozostałe krótkie (2 lub 3 operacje).
+ * Wypisuje liczbę zatwierdzonych i przerwanych transakcji na sekundę oraz liczbę operacji
+ * wykonanych w przerwanych transakcjach (pracy zmarnowanej i wycofanej) na sekundę.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.TransactionManagerFactory;
+import cp1.solution.VictimSelection;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class VictimSelectionBenchmark {
+
+    private final static int THREADS = 16;
+    private final static int RESOURCES = 64;
+    private final static int LONG_EVERY = 5;
+    private final static int LONG_OPERATIONS = 20;
+    private final static long DURATION_MS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%18s %12s %12s %15s\n", "selection", "commits/s", "aborts/s", "wasted ops/s");
+        // Warm-up.
+        run(VictimSelection.YOUNGEST);
+        for (VictimSelection selection : VictimSelection.values()) {
+            long[] result = run(selection);
+            System.out.printf("%18s %12d %12d %15d\n", selection,
+                    result[0] * 1000 / DURATION_MS, result[1] * 1000 / DURATION_MS, result[2] * 1000 / DURATION_MS);
+        }
+    }
+
+    // Returns the number of commits, the number of aborts and the number of wasted operations.
+    private static long[] run(VictimSelection selection) throws InterruptedException {
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            R.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl(),
+                DeadlockPolicy.detection(selection));
+
+        AtomicLong commits = new AtomicLong(0);
+        AtomicLong aborts = new AtomicLong(0);
+        AtomicLong wasted = new AtomicLong(0);
+        long end = System.currentTimeMillis() + DURATION_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < end) {
+                    int n = random.nextInt(LONG_EVERY) == 0 ? LONG_OPERATIONS : 2 + random.nextInt(2);
+                    int done = 0;
+                    try {
+                        tm.startTransaction();
+                        for (; done < n; done++) {
+                            ResourceId rid = R.get(random.nextInt(RESOURCES)).getId();
+                            tm.operateOnResourceInCurrentTransaction(rid, ResourceOpImpl.get());
+                        }
+                        tm.commitCurrentTransaction();
+                        commits.incrementAndGet();
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                        wasted.addAndGet(done);
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return new long[]{commits.get(), aborts.get(), wasted.get()};
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+        @Override
+        public int compareTo(ResourceId other) {
+            if (! (other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl)other;
+            return Integer.compare(this.value, second.value);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (! (obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl)obj;
+            return this.value == second.value;
+        }
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+        public static ResourceOperation get() {
+            return singleton;
+        }
+        private ResourceOpImpl() {
+        }
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+        @Override
+        public void execute(Resource r) {
+            if (! (r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl)r).incValue();
+        }
+        @Override
+        public void undo(Resource r) {
+            if (! (r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl)r).decValue();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/* Uruchamia TRANSACTIONS transakcji naraz na zasobach jak w StressTest (RESOURCES zasobów),
+ * każdą jako osobne zadanie: raz na wątkach wirtualnych (wątek na zadanie), raz na puli
+ * PLATFORM_THREADS wątków systemowych. Transakcja zwiększa OPERATIONS kolejnych zasobów od
+ * losowego i jest powtarzana, gdy zostanie przerwana. Wypisuje przepustowość i 99. percentyl
+ * czasu od zlecenia zadania do zatwierdzenia transakcji.
+ * Wątki wirtualne są tworzone przez refleksję, więc test kompiluje się na JDK 17; jeśli
+ * ich nie ma, mierzone są tylko wątki systemowe.
+ */
+package cp1.tests;
+
+import cp1.base.*;
+import cp1.solution.TransactionManagerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class VirtualThreadBenchmark {
+
+    private final static int TRANSACTIONS = 100_000;
+    private final static int RESOURCES = 100;
+    private final static int OPERATIONS = 4;
+    private final static int PLATFORM_THREADS = 256;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        System.out.printf("%10s %15s %15s %15s\n", "threads", "commits/s", "aborts/s", "p99 [ms]");
+        // Warm-up.
+        run(Executors.newFixedThreadPool(PLATFORM_THREADS), "");
+        run(Executors.newFixedThreadPool(PLATFORM_THREADS), "platform");
+        if (virtual == null) {
+            System.out.println("Virtual threads are not available in Java " + System.getProperty("java.version"));
+        } else {
+            run(virtual, "virtual");
+        }
+    }
+
+    // Returns null if the JDK has no virtual threads.
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Prints the results unless name is empty, shuts the executor down.
+    private static void run(ExecutorService executor, String name) throws InterruptedException {
+        List<ResourceImpl> RI = new ArrayList<>();
+        List<Resource> R = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl ri = new ResourceImpl(ResourceIdImpl.generate());
+            RI.add(ri);
+            R.add(ri);
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(R, new LocalTimeProviderImpl());
+
+        AtomicLong aborts = new AtomicLong(0);
+        long[] latencies = new long[TRANSACTIONS];
+        long start = System.nanoTime();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            final int index = i;
+            final long submitted = System.nanoTime();
+            executor.execute(() -> {
+                int offset = ThreadLocalRandom.current().nextInt(RESOURCES);
+                while (true) {
+                    try {
+                        tm.startTransaction();
+                        for (int j = 0; j < OPERATIONS; j++) {
+                            tm.operateOnResourceInCurrentTransaction(R.get((offset + j) % RESOURCES).getId(), ResourceOpImpl.get());
+                        }
+                        tm.commitCurrentTransaction();
+                        break;
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+                latencies[index] = System.nanoTime() - submitted;
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.MINUTES)) {
+            throw new AssertionError("Transactions have not finished");
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long total = 0;
+        for (ResourceImpl ri : RI) {
+            total += ri.getValue();
+        }
+        if (total != (long) TRANSACTIONS * OPERATIONS) {
+            throw new AssertionError("Resources sum up to " + total + " instead of " + (long) TRANSACTIONS * OPERATIONS);
+        }
+        if (!name.isEmpty()) {
+            Arrays.sort(latencies);
+            long p99 = latencies[(int) (TRANSACTIONS * 0.99)];
+            System.out.printf("%10s %15d %15d %15.2f\n", name, TRANSACTIONS * 1_000_000_000L / elapsed,
+                    aborts.get() * 1_000_000_000L / elapsed, p99 / 1e6);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Sample implementations of the base interfaces     -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class LocalTimeProviderImpl implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static final class ResourceIdImpl implements ResourceId {
+        private static volatile int next = 0;
+
+        public static synchronized ResourceId generate() {
+            return new ResourceIdImpl(next++);
+        }
+
+        private final int value;
+
+        private ResourceIdImpl(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            if (!(other instanceof ResourceIdImpl)) {
+                throw new RuntimeException("Comparing incompatible resource IDs");
+            }
+            ResourceIdImpl second = (ResourceIdImpl) other;
+            return Integer.compare(this.value, second.value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceIdImpl)) {
+                return false;
+            }
+            ResourceIdImpl second = (ResourceIdImpl) obj;
+            return this.value == second.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class ResourceImpl extends Resource {
+        private volatile long value = 0;
+
+        public ResourceImpl(ResourceId id) {
+            super(id);
+        }
+
+        public void incValue() {
+            long x = this.value;
+            ++x;
+            this.value = x;
+        }
+
+        public void decValue() {
+            long x = this.value;
+            --x;
+            this.value = x;
+        }
+
+        public long getValue() {
+            return this.value;
+        }
+    }
+
+    private static final class ResourceOpImpl extends ResourceOperation {
+        private final static ResourceOpImpl singleton = new ResourceOpImpl();
+
+        public static ResourceOperation get() {
+            return singleton;
+        }
+
+        private ResourceOpImpl() {
+        }
+
+        @Override
+        public String toString() {
+            return "OP_" + super.toString();
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            if (!(r instanceof ResourceImpl)) {
+                throw new AssertionError("Unexpected resource type " +
+                        r.getClass().getCanonicalName());
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}